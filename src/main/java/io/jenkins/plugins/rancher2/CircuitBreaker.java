@@ -0,0 +1,60 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.AbortException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * per-endpoint circuit breaker shared by all builds.
+ * after too many consecutive failures the circuit opens and requests fail fast,
+ * once the open period is over a single probe request decides whether it closes again.
+ */
+final class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 5);
+    private static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(CircuitBreaker.class.getName() + ".openSeconds", 30));
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    private CircuitBreaker(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    static CircuitBreaker of(String endpoint) {
+        return BREAKERS.computeIfAbsent(endpoint, CircuitBreaker::new);
+    }
+
+    /**
+     * @throws AbortException if the circuit is open
+     */
+    synchronized void acquire() throws AbortException {
+        if (failures < FAILURE_THRESHOLD) {
+            return;
+        }
+        long remaining = openedAt + OPEN_MILLIS - System.currentTimeMillis();
+        if (remaining > 0 || probing) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_circuitOpen(
+                    endpoint, TimeUnit.MILLISECONDS.toSeconds(Math.max(remaining, 0))));
+        }
+        probing = true;
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        probing = false;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        probing = false;
+        if (failures >= FAILURE_THRESHOLD) {
+            openedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,34 +1,74 @@
 package io.jenkins.plugins.rancher2;
 
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.ssl.TrustStrategy;
+import org.jvnet.localizer.Localizable;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class ClientBuilder {
+    private static final int MAX_TOTAL = Integer.getInteger(ClientBuilder.class.getName() + ".maxTotal", 50);
+    private static final int MAX_PER_ROUTE = Integer.getInteger(ClientBuilder.class.getName() + ".maxPerRoute", 20);
+    private static final long KEEP_ALIVE_SECONDS = Long.getLong(ClientBuilder.class.getName() + ".keepAliveSeconds", 60);
+    private static final long MAX_IDLE_SECONDS = Long.getLong(ClientBuilder.class.getName() + ".maxIdleSeconds", 30);
 
     /**
-     * create HttpClient to support self-signed SSL Certification
+     * create HttpClient to support self-signed SSL Certification.
+     * the client owns a keep-alive connection pool, use {@link ClientRegistry#acquire(String, boolean)}
+     * to share it between builds instead of creating a new one for every request.
      * @param endpoint rancher API url
      * @param trustAll skip SSL validation
      * @return http client
      */
     public static CloseableHttpClient create(String endpoint, boolean trustAll) {
+        return create(createConnectionManager(endpoint, trustAll, ClientOptions.DEFAULT), ClientOptions.DEFAULT);
+    }
+
+    /**
+     * @param endpoint rancher API url
+     * @param trustAll skip SSL validation
+     * @param options transport, timeouts and pool size
+     * @return connection pool reporting connection acquisition and connect time to {@link Rancher2Metrics}
+     */
+    static PoolingHttpClientConnectionManager createConnectionManager(String endpoint, boolean trustAll,
+                                                                      ClientOptions options) {
+        LayeredConnectionSocketFactory sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
         if (endpoint.startsWith("https") && trustAll) {
-            HttpClientBuilder builder = HttpClientBuilder.create();
             // setup a Trust Strategy that allows all certificates.
             //
             SSLContext sslContext;
@@ -42,7 +82,6 @@ public class ClientBuilder {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-            builder.setSslcontext(sslContext);
 
             // don't check Hostnames, either.
             //      -- use SSLConnectionSocketFactory.getDefaultHostnameVerifier(), if you don't want to weaken
@@ -50,23 +89,229 @@ public class ClientBuilder {
 
             // here's the special part:
             //      -- need to create an SSL Socket Factory, to use our weakened "trust strategy";
-            //      -- and create a Registry, to register it.
-            //
-            SSLConnectionSocketFactory sslSocketFactory = new SSLConnectionSocketFactory(sslContext, hostnameVerifier);
-            Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
-                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
-                    .register("https", sslSocketFactory)
-                    .build();
-
-            // now, we create connection-manager using our Registry.
-            //      -- allows multi-threaded use
-            PoolingHttpClientConnectionManager connMgr = new PoolingHttpClientConnectionManager( socketFactoryRegistry);
-            builder.setConnectionManager(connMgr);
-
-            // finally, build the HttpClient;
-            //      -- done!
-            return builder.build();
+            sslSocketFactory = new SSLConnectionSocketFactory(sslContext, hostnameVerifier);
+        }
+
+        // create a Registry, to register socket factories.
+        //      -- connect time of https includes TLS handshake
+        String endpointName = Rancher2Metrics.endpointName(endpoint);
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), endpointName))
+                .register("https", new TimedLayeredSocketFactory(sslSocketFactory, endpointName))
+                .build();
+
+        // now, we create connection-manager using our Registry.
+        //      -- allows multi-threaded use, connections are kept alive and reused by all builds
+        PoolingHttpClientConnectionManager connMgr = new TimedConnectionManager(socketFactoryRegistry, endpointName);
+        // a credential limiting its concurrent requests never needs more connections than that
+        int maxConnections = options.getMaxConnections();
+        connMgr.setMaxTotal(maxConnections > 0 ? maxConnections : MAX_TOTAL);
+        connMgr.setDefaultMaxPerRoute(maxConnections > 0 ? maxConnections : MAX_PER_ROUTE);
+        connMgr.setValidateAfterInactivity(2000);
+        return connMgr;
+    }
+
+    /**
+     * @param connMgr connection pool, closed together with the client
+     * @param options transport and timeouts
+     * @return http client
+     */
+    static CloseableHttpClient create(PoolingHttpClientConnectionManager connMgr, ClientOptions options) {
+        HttpClientBuilder builder = HttpClientBuilder.create();
+        builder.setConnectionManager(connMgr);
+        builder.setDefaultRequestConfig(options.toRequestConfig());
+
+        // honor server keep-alive header, but never keep a connection longer than our own limit
+        final ConnectionKeepAliveStrategy serverStrategy = DefaultConnectionKeepAliveStrategy.INSTANCE;
+        builder.setKeepAliveStrategy((response, context) -> {
+            long duration = serverStrategy.getKeepAliveDuration(response, context);
+            long max = TimeUnit.SECONDS.toMillis(KEEP_ALIVE_SECONDS);
+            return duration > 0 && duration < max ? duration : max;
+        });
+        // count body bytes, response interceptors added first see the body as sent by the server,
+        // before http client decompresses it, the ones added last see it decoded
+        builder.addInterceptorFirst((HttpResponseInterceptor) (response, context) ->
+                countResponse(response, Rancher2Metrics.Traffic.RECEIVED_WIRE));
+        builder.addInterceptorLast((HttpResponseInterceptor) (response, context) ->
+                countResponse(response, Rancher2Metrics.Traffic.RECEIVED));
+        builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> countRequest(request));
+
+        builder.evictExpiredConnections();
+        builder.evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS);
+
+        // finally, build the HttpClient;
+        //      -- done!
+        return builder.build();
+    }
+
+    private static void countRequest(HttpRequest request) {
+        Rancher2Metrics metrics = Rancher2Metrics.current();
+        if (metrics == null || !(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        if (entity == null || entity.getContentLength() < 0) {
+            return;
+        }
+        metrics.count(Rancher2Metrics.Traffic.SENT_WIRE, entity.getContentLength());
+        metrics.count(Rancher2Metrics.Traffic.SENT, entity instanceof Rancher2Client.GzipEntity
+                ? ((Rancher2Client.GzipEntity) entity).getRawLength() : entity.getContentLength());
+    }
+
+    private static void countResponse(HttpResponse response, Rancher2Metrics.Traffic kind) {
+        // metrics of the request being executed, bytes are counted later when the body is read
+        Rancher2Metrics metrics = Rancher2Metrics.current();
+        if (metrics != null && response.getEntity() != null) {
+            response.setEntity(new CountingEntity(response.getEntity(), metrics, kind));
+        }
+    }
+
+    /**
+     * how clients connect to Rancher2.x, selected per credential.
+     * HTTP/2 is not offered, http client 4 only speaks HTTP/1.1, pooled keep-alive connections are reused instead.
+     */
+    public enum Transport {
+        /**
+         * shared keep-alive pool, JVM trust store, no proxy
+         */
+        POOLED(Messages._ClientBuilder_Transport_POOLED());
+
+        private final Localizable displayName;
+
+        Transport(Localizable displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName.toString();
+        }
+    }
+
+    private static final class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+        private final String endpointName;
+
+        private TimedConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, String endpointName) {
+            super(socketFactoryRegistry, null, null, null, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            this.endpointName = endpointName;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ConnectionRequest request = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit tunit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return request.get(timeout, tunit);
+                    } finally {
+                        Rancher2Metrics.recordCurrent(endpointName, Rancher2Metrics.Phase.POOL, System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * response body reporting the bytes read from it when its stream is closed
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+        private final Rancher2Metrics metrics;
+        private final Rancher2Metrics.Traffic kind;
+
+        private CountingEntity(HttpEntity entity, Rancher2Metrics metrics, Rancher2Metrics.Traffic kind) {
+            super(entity);
+            this.metrics = metrics;
+            this.kind = kind;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                private long count;
+                private boolean closed;
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        count++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        count += n;
+                    }
+                    return n;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        metrics.count(kind, count);
+                    }
+                    super.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * socket factory reporting connect time to {@link Rancher2Metrics}
+     */
+    private static class TimedSocketFactory implements ConnectionSocketFactory {
+        private final ConnectionSocketFactory delegate;
+        private final String endpointName;
+
+        private TimedSocketFactory(ConnectionSocketFactory delegate, String endpointName) {
+            this.delegate = delegate;
+            this.endpointName = endpointName;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            } finally {
+                Rancher2Metrics.recordCurrent(endpointName, Rancher2Metrics.Phase.CONNECT, System.nanoTime() - start);
+            }
+        }
+
+    }
+
+    /**
+     * TLS socket factory reporting connect time, TLS is layered over the socket of a tunnelling proxy
+     */
+    private static final class TimedLayeredSocketFactory extends TimedSocketFactory
+            implements LayeredConnectionSocketFactory {
+        private final LayeredConnectionSocketFactory delegate;
+
+        private TimedLayeredSocketFactory(LayeredConnectionSocketFactory delegate, String endpointName) {
+            super(delegate, endpointName);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            return delegate.createLayeredSocket(socket, target, port, context);
         }
-        return HttpClients.createDefault();
     }
 }
@@ -0,0 +1,89 @@
+package io.jenkins.plugins.rancher2;
+
+import org.apache.http.client.config.RequestConfig;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * how clients of a credential talk to Rancher2.x, clients with equal options share one connection pool.
+ * timeouts are in seconds, 0 uses the global default, which is no timeout unless a system property sets one.
+ * the pool size defaults to the global limits of {@link ClientBuilder}.
+ */
+final class ClientOptions {
+    private static final int CONNECT_TIMEOUT = Integer.getInteger(ClientOptions.class.getName() + ".connectTimeout", 0);
+    private static final int READ_TIMEOUT = Integer.getInteger(ClientOptions.class.getName() + ".readTimeout", 0);
+    private static final int POOL_TIMEOUT = Integer.getInteger(ClientOptions.class.getName() + ".poolTimeout", 0);
+
+    static final ClientOptions DEFAULT = new ClientOptions(ClientBuilder.Transport.POOLED, 0, 0, 0, 0);
+
+    private final ClientBuilder.Transport transport;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int poolTimeout;
+    private final int maxConnections;
+
+    /**
+     * @param transport how connections are made, null for default
+     * @param connectTimeout max seconds to open a connection, includes TLS handshake
+     * @param readTimeout max seconds between two packets of a response
+     * @param poolTimeout max seconds to wait for a free pooled connection
+     * @param maxConnections max pooled connections, 0 for the global limits
+     */
+    ClientOptions(ClientBuilder.Transport transport, int connectTimeout, int readTimeout, int poolTimeout,
+                  int maxConnections) {
+        this.transport = transport == null ? ClientBuilder.Transport.POOLED : transport;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.poolTimeout = poolTimeout;
+        this.maxConnections = maxConnections;
+    }
+
+    ClientBuilder.Transport getTransport() {
+        return transport;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return default request config of clients with these options
+     */
+    RequestConfig toRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(toMillis(connectTimeout, CONNECT_TIMEOUT))
+                .setSocketTimeout(toMillis(readTimeout, READ_TIMEOUT))
+                .setConnectionRequestTimeout(toMillis(poolTimeout, POOL_TIMEOUT))
+                .build();
+    }
+
+    /**
+     * @return millis, -1 for no timeout as http client expects it
+     */
+    private static int toMillis(int seconds, int globalSeconds) {
+        int timeout = seconds > 0 ? seconds : globalSeconds;
+        return timeout > 0 ? (int) TimeUnit.SECONDS.toMillis(timeout) : -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClientOptions)) {
+            return false;
+        }
+        ClientOptions that = (ClientOptions) o;
+        return transport == that.transport
+                && connectTimeout == that.connectTimeout
+                && readTimeout == that.readTimeout
+                && poolTimeout == that.poolTimeout
+                && maxConnections == that.maxConnections;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(transport, connectTimeout, readTimeout, poolTimeout, maxConnections);
+    }
+}
@@ -0,0 +1,211 @@
+package io.jenkins.plugins.rancher2;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import hudson.init.Terminator;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * controller-wide registry of pooled http clients, keyed by (endpoint, trustCert, client options).
+ * all builds talking to the same Rancher2.x server share one connection pool,
+ * so TCP and TLS handshakes are only paid when a pooled connection is missing.
+ */
+public final class ClientRegistry {
+    private static final Logger LOGGER = Logger.getLogger(ClientRegistry.class.getName());
+
+    // guarded by itself
+    private static final Map<Key, Entry> CLIENTS = new HashMap<>();
+
+    private ClientRegistry() {
+    }
+
+    /**
+     * lease the shared client of an endpoint, create it if absent.
+     * the lease must be closed after use, it never closes the shared client directly.
+     * @param endpoint rancher API url
+     * @param trustCert skip SSL validation
+     * @return lease of shared http client
+     */
+    public static Lease acquire(String endpoint, boolean trustCert) {
+        return acquire(endpoint, trustCert, ClientOptions.DEFAULT);
+    }
+
+    /**
+     * @param endpoint rancher API url
+     * @param trustCert skip SSL validation
+     * @param options transport and timeouts, clients with other options get another pool
+     * @return lease of shared http client
+     */
+    static Lease acquire(String endpoint, boolean trustCert, ClientOptions options) {
+        Key key = new Key(endpoint, trustCert, options);
+        synchronized (CLIENTS) {
+            Entry entry = CLIENTS.get(key);
+            if (entry == null) {
+                PoolingHttpClientConnectionManager connMgr =
+                        ClientBuilder.createConnectionManager(endpoint, trustCert, options);
+                entry = new Entry(ClientBuilder.create(connMgr, options), connMgr, Rancher2Metrics.endpointName(endpoint));
+                CLIENTS.put(key, entry);
+                registerPoolGauges(entry.endpointName);
+            }
+            entry.leases++;
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * drop all shared clients, e.g. when credentials changed.
+     * clients still in use are closed when their last lease is released.
+     */
+    public static void invalidateAll() {
+        List<Entry> idle = new ArrayList<>();
+        synchronized (CLIENTS) {
+            for (Entry entry : CLIENTS.values()) {
+                entry.retired = true;
+                if (entry.leases == 0) {
+                    idle.add(entry);
+                }
+            }
+            CLIENTS.clear();
+        }
+        for (Entry entry : idle) {
+            entry.close();
+        }
+    }
+
+    /**
+     * @param endpointName host and port of endpoint
+     * @return sum of pool stats of all shared clients of the endpoint
+     */
+    static PoolStats poolStats(String endpointName) {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        synchronized (CLIENTS) {
+            for (Entry entry : CLIENTS.values()) {
+                if (entry.endpointName.equals(endpointName)) {
+                    PoolStats stats = entry.connMgr.getTotalStats();
+                    leased += stats.getLeased();
+                    pending += stats.getPending();
+                    available += stats.getAvailable();
+                    max += stats.getMax();
+                }
+            }
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    private static void registerPoolGauges(final String endpointName) {
+        MetricRegistry registry = Rancher2Metrics.registry();
+        if (registry == null) {
+            return;
+        }
+        registry.gauge(MetricRegistry.name("rancher2", endpointName, "pool", "leased"),
+                () -> (Gauge<Integer>) () -> poolStats(endpointName).getLeased());
+        registry.gauge(MetricRegistry.name("rancher2", endpointName, "pool", "pending"),
+                () -> (Gauge<Integer>) () -> poolStats(endpointName).getPending());
+        registry.gauge(MetricRegistry.name("rancher2", endpointName, "pool", "available"),
+                () -> (Gauge<Integer>) () -> poolStats(endpointName).getAvailable());
+        registry.gauge(MetricRegistry.name("rancher2", endpointName, "pool", "max"),
+                () -> (Gauge<Integer>) () -> poolStats(endpointName).getMax());
+    }
+
+    @Terminator
+    public static void shutdown() {
+        invalidateAll();
+    }
+
+    private static void release(Entry entry) {
+        synchronized (CLIENTS) {
+            entry.leases--;
+            if (!entry.retired || entry.leases > 0) {
+                return;
+            }
+        }
+        entry.close();
+    }
+
+    public static final class Lease implements Closeable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public CloseableHttpClient getClient() {
+            return entry.client;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final CloseableHttpClient client;
+        private final PoolingHttpClientConnectionManager connMgr;
+        private final String endpointName;
+        private int leases;
+        private boolean retired;
+
+        private Entry(CloseableHttpClient client, PoolingHttpClientConnectionManager connMgr, String endpointName) {
+            this.client = client;
+            this.connMgr = connMgr;
+            this.endpointName = endpointName;
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "failed to close http client", e);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String endpoint;
+        private final boolean trustCert;
+        private final ClientOptions options;
+
+        private Key(String endpoint, boolean trustCert, ClientOptions options) {
+            this.endpoint = endpoint;
+            this.trustCert = trustCert;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return trustCert == key.trustCert && endpoint.equals(key.endpoint) && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, trustCert, options);
+        }
+    }
+}
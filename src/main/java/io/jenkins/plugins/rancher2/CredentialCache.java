@@ -0,0 +1,319 @@
+package io.jenkins.plugins.rancher2;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsParameterValue;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.domains.Domain;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.model.ModelObject;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * controller-wide cache of resolved Rancher2.x credentials, keyed by (job full name, credential id, authentication).
+ * a build only hits entries resolved for the same authentication, e.g. the same user with per-build authorization.
+ * a credential is looked up and its token decrypted once, builds get a ready-to-use context to create clients from.
+ * the list of credentials shown on config pages is cached as well.
+ * when a credentials store is saved, only the credentials it no longer holds as they were are dropped,
+ * entries also expire after a while, e.g. in case a job was moved to another folder.
+ */
+final class CredentialCache {
+    private static final int MAX_ENTRIES = Integer.getInteger(CredentialCache.class.getName() + ".maxEntries", 1024);
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(CredentialCache.class.getName() + ".ttlSeconds", 60));
+
+    // guarded by itself, in access order
+    private static final LinkedHashMap<Key, Context> CONTEXTS = new LinkedHashMap<>(16, 0.75f, true);
+    // guarded by CONTEXTS
+    private static ListBoxModel items;
+    private static long itemsExpireAt;
+    // bumped on invalidation, lookups started before are not cached
+    private static long generation;
+
+    private CredentialCache() {
+    }
+
+    /**
+     * @param run build using the credential
+     * @param credentialId id of a {@link Rancher2Credentials}
+     * @return resolved credential, null if not found
+     */
+    static Context resolve(Run<?, ?> run, String credentialId) throws IOException, InterruptedException {
+        if (TTL_MILLIS <= 0 || MAX_ENTRIES <= 0 || isParameter(run, credentialId)) {
+            // credentials parameters may resolve to credentials of the user who started the build
+            return lookup(run, credentialId);
+        }
+        Key key = new Key(run.getParent().getFullName(), credentialId, Jenkins.getAuthentication().getName());
+        long lookupGeneration;
+        synchronized (CONTEXTS) {
+            Context context = CONTEXTS.get(key);
+            if (context != null && context.expiresAt - System.currentTimeMillis() > 0) {
+                // keep usage tracking as findCredentialById does
+                CredentialsProvider.track(run, context.credential);
+                return context;
+            }
+            CONTEXTS.remove(key);
+            lookupGeneration = generation;
+        }
+        Context context = lookup(run, credentialId);
+        if (context != null) {
+            synchronized (CONTEXTS) {
+                if (lookupGeneration == generation) {
+                    CONTEXTS.put(key, context);
+                    Iterator<Key> eldest = CONTEXTS.keySet().iterator();
+                    while (CONTEXTS.size() > MAX_ENTRIES) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * @return all Rancher2.x credentials of Jenkins, a copy the caller may change
+     */
+    static ListBoxModel credentialItems() {
+        ListBoxModel cached = null;
+        long lookupGeneration;
+        synchronized (CONTEXTS) {
+            if (items != null && itemsExpireAt - System.currentTimeMillis() > 0) {
+                cached = items;
+            }
+            lookupGeneration = generation;
+        }
+        if (cached == null) {
+            cached = CredentialsProvider.listCredentials(Rancher2Credentials.class,
+                    Jenkins.get(), ACL.SYSTEM, Collections.<DomainRequirement>emptyList(), CredentialsMatchers.always());
+            synchronized (CONTEXTS) {
+                if (lookupGeneration == generation && TTL_MILLIS > 0) {
+                    items = cached;
+                    itemsExpireAt = System.currentTimeMillis() + TTL_MILLIS;
+                }
+            }
+        }
+        // options are mutable, never hand out the cached ones
+        ListBoxModel copy = new ListBoxModel();
+        for (ListBoxModel.Option option : cached) {
+            copy.add(new ListBoxModel.Option(option.name, option.value, option.selected));
+        }
+        return copy;
+    }
+
+    /**
+     * drop the resolved credentials of a store which were changed or removed since they were resolved.
+     * stores are saved with their user or folder, e.g. on login or branch indexing,
+     * a save which changed none of the resolved credentials drops nothing.
+     *
+     * @param storeContext context of the saved credentials store, {@link Jenkins} for system credentials
+     */
+    static void invalidate(ModelObject storeContext) {
+        synchronized (CONTEXTS) {
+            // lookups started before may have found a credential which is gone now
+            generation++;
+            if (storeContext instanceof Jenkins) {
+                items = null;
+            }
+            if (!isResolvedFrom(storeContext)) {
+                return;
+            }
+        }
+        Set<Credentials> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CredentialsStore store : CredentialsProvider.lookupStores(storeContext)) {
+            if (store.getContext() == storeContext) {
+                for (Domain domain : store.getDomains()) {
+                    stored.addAll(store.getCredentials(domain));
+                }
+            }
+        }
+        List<Context> dropped = new ArrayList<>();
+        synchronized (CONTEXTS) {
+            Iterator<Context> contexts = CONTEXTS.values().iterator();
+            while (contexts.hasNext()) {
+                Context context = contexts.next();
+                if (context.storeContext == storeContext && !stored.contains(context.credential)) {
+                    contexts.remove();
+                    dropped.add(context);
+                }
+            }
+        }
+        for (Context context : dropped) {
+            WorkloadIndex.invalidate(context.endpoint, context.bearerToken);
+        }
+    }
+
+    // guarded by CONTEXTS
+    private static boolean isResolvedFrom(ModelObject storeContext) {
+        for (Context context : CONTEXTS.values()) {
+            if (context.storeContext == storeContext) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isParameter(Run<?, ?> run, String credentialId) {
+        ParametersAction parameters = run.getAction(ParametersAction.class);
+        if (parameters == null) {
+            return false;
+        }
+        for (ParameterValue parameter : parameters.getParameters()) {
+            if (parameter instanceof CredentialsParameterValue
+                    && credentialId.equals(((CredentialsParameterValue) parameter).getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Context lookup(Run<?, ?> run, String credentialId) throws IOException, InterruptedException {
+        Rancher2Credentials credential = CredentialsProvider.findCredentialById(
+                credentialId,
+                Rancher2Credentials.class,
+                run,
+                (DomainRequirement) null);
+        return credential == null ? null
+                : new Context(credential, findStoreContext(run, credential), System.currentTimeMillis() + TTL_MILLIS);
+    }
+
+    /**
+     * @return context of the store holding the credential, null if it is not in a store visible to the job
+     */
+    private static ModelObject findStoreContext(Run<?, ?> run, Rancher2Credentials credential) {
+        for (CredentialsStore store : CredentialsProvider.lookupStores(run.getParent())) {
+            for (Domain domain : store.getDomains()) {
+                for (Credentials stored : store.getCredentials(domain)) {
+                    if (stored == credential) {
+                        return store.getContext();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * a resolved credential, with its token decrypted, ready to create clients.
+     */
+    static final class Context {
+        private final Rancher2Credentials credential;
+        // context of the store it was found in, null if unknown, then it is only dropped once expired
+        private final ModelObject storeContext;
+        private final String endpoint;
+        private final boolean trustCert;
+        private final String bearerToken;
+        private final int requestsPerSecond;
+        private final int maxConcurrentRequests;
+        private final ClientOptions options;
+        private final boolean compressRequests;
+        private final String singleClusterId;
+        private final boolean kubernetesApi;
+        private final long expiresAt;
+
+        private Context(Rancher2Credentials credential, ModelObject storeContext, long expiresAt)
+                throws IOException, InterruptedException {
+            this.credential = credential;
+            this.storeContext = storeContext;
+            this.endpoint = credential.getEndpoint();
+            this.trustCert = credential.isTrustCert();
+            this.bearerToken = credential.getBearerToken();
+            this.requestsPerSecond = credential.getRequestsPerSecond();
+            this.maxConcurrentRequests = credential.getMaxConcurrentRequests();
+            this.options = new ClientOptions(credential.getTransport(), credential.getConnectTimeout(),
+                    credential.getReadTimeout(), credential.getPoolTimeout(), credential.getMaxConcurrentRequests());
+            this.compressRequests = credential.isCompressRequests();
+            this.singleClusterId = credential.isSingleClusterToken() ? credential.getClusterId() : null;
+            this.kubernetesApi = credential.isKubernetesApi();
+            this.expiresAt = expiresAt;
+        }
+
+        String getEndpoint() {
+            return endpoint;
+        }
+
+        String getBearerToken() {
+            return bearerToken;
+        }
+
+        /**
+         * @return id of the cluster the token is scoped to, null if not scoped to a single cluster
+         */
+        String getSingleClusterId() {
+            return singleClusterId;
+        }
+
+        /**
+         * @return redeploy through the Kubernetes API of the cluster instead of the /v3 API
+         */
+        boolean isKubernetesApi() {
+            return kubernetesApi;
+        }
+
+        /**
+         * @return lease of the shared http client of the endpoint, must be closed after use
+         */
+        ClientRegistry.Lease acquire() {
+            return ClientRegistry.acquire(endpoint, trustCert, options);
+        }
+
+        /**
+         * @param client leased http client
+         * @return client authenticated with this credential
+         */
+        Rancher2Client newClient(CloseableHttpClient client) {
+            Rancher2Client rancher2Client = new Rancher2Client(
+                    client, endpoint, bearerToken, requestsPerSecond, maxConcurrentRequests);
+            rancher2Client.setCompressRequests(compressRequests);
+            return rancher2Client;
+        }
+    }
+
+    private static final class Key {
+        private final String job;
+        private final String credentialId;
+        private final String authentication;
+
+        private Key(String job, String credentialId, String authentication) {
+            this.job = job;
+            this.credentialId = credentialId;
+            this.authentication = authentication;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return job.equals(key.job) && credentialId.equals(key.credentialId)
+                    && authentication.equals(key.authentication);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(job, credentialId, authentication);
+        }
+    }
+}
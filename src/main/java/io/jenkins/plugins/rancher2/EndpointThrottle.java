@@ -0,0 +1,139 @@
+package io.jenkins.plugins.rancher2;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * controller-wide rate limiter and concurrency cap of a Rancher2.x endpoint, shared by all builds.
+ * rate is limited by a token bucket, which lets a burst of up to one second worth of requests through after idle.
+ * both the bucket and the semaphore serve waiting requests in arrival order.
+ * there is one throttle per endpoint and limits, credentials of the same endpoint asking for the same limits share it.
+ * limits are taken from the credential on every use, so a changed or removed credential stops applying its old ones.
+ */
+final class EndpointThrottle {
+    static final int DEFAULT_REQUESTS_PER_SECOND = Integer.getInteger(
+            EndpointThrottle.class.getName() + ".requestsPerSecond", 0);
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = Integer.getInteger(
+            EndpointThrottle.class.getName() + ".maxConcurrentRequests", 0);
+    private static final ConcurrentMap<Key, EndpointThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+    private final long intervalNanos;
+    private final int burst;
+    // null without concurrency limit
+    private final Semaphore inFlight;
+    // guarded by this
+    private long nextFree = System.nanoTime();
+
+    private EndpointThrottle(int requestsPerSecond, int maxConcurrentRequests) {
+        this.intervalNanos = requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+        this.burst = Math.max(1, requestsPerSecond);
+        this.inFlight = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests, true) : null;
+    }
+
+    /**
+     * @param endpoint rancher API url
+     * @param requestsPerSecond max requests per second, 0 to use global default
+     * @param maxConcurrentRequests max requests in flight, 0 to use global default
+     * @return throttle shared by all builds using the same endpoint and limits
+     */
+    static EndpointThrottle of(String endpoint, int requestsPerSecond, int maxConcurrentRequests) {
+        int rate = requestsPerSecond > 0 ? requestsPerSecond : DEFAULT_REQUESTS_PER_SECOND;
+        int concurrency = maxConcurrentRequests > 0 ? maxConcurrentRequests : DEFAULT_MAX_CONCURRENT_REQUESTS;
+        return THROTTLES.computeIfAbsent(new Key(endpoint, rate, concurrency),
+                key -> new EndpointThrottle(rate, concurrency));
+    }
+
+    /**
+     * wait for a request slot, the permit must be released once the response was read.
+     * @return permit holding the slot
+     */
+    Permit acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        long wait = reserve();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        if (inFlight != null) {
+            inFlight.acquire();
+        }
+        return new Permit(inFlight, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * @return nanoseconds to wait before the reserved token becomes available
+     */
+    private synchronized long reserve() {
+        if (intervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long earliest = now - (burst - 1) * intervalNanos;
+        if (nextFree - earliest < 0) {
+            nextFree = earliest;
+        }
+        long wait = Math.max(0, nextFree - now);
+        nextFree += intervalNanos;
+        return wait;
+    }
+
+    /**
+     * a request slot, released at most once
+     */
+    static final class Permit {
+        private final Semaphore slots;
+        private final long waitMillis;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore slots, long waitMillis) {
+            this.slots = slots;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return milliseconds waited for the slot
+         */
+        long getWaitMillis() {
+            return waitMillis;
+        }
+
+        void release() {
+            if (slots != null && released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String endpoint;
+        private final int requestsPerSecond;
+        private final int maxConcurrentRequests;
+
+        private Key(String endpoint, int requestsPerSecond, int maxConcurrentRequests) {
+            this.endpoint = endpoint;
+            this.requestsPerSecond = requestsPerSecond;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return endpoint.equals(key.endpoint) && requestsPerSecond == key.requestsPerSecond
+                    && maxConcurrentRequests == key.maxConcurrentRequests;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, requestsPerSecond, maxConcurrentRequests);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.AbortException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * redeploy through the Kubernetes API of the workload's cluster, which Rancher2.x proxies at /k8s/clusters/&lt;clusterId&gt;,
+ * instead of the /v3 API, which translates every workload from and to Kubernetes objects on each call.
+ * new image tags are sent as a strategic merge patch of the pod template, containers are matched by name,
+ * so only changed fields go over the wire and nothing else of the workload is rewritten.
+ */
+final class KubernetesPatcher {
+    static final String STRATEGIC_MERGE_PATCH = "application/strategic-merge-patch+json";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Rancher2.x workload kind to apps/v1 resource
+    private static final Map<String, String> RESOURCES = new HashMap<>();
+
+    static {
+        RESOURCES.put("deployment", "deployments");
+        RESOURCES.put("statefulset", "statefulsets");
+        RESOURCES.put("daemonset", "daemonsets");
+    }
+
+    private final Rancher2Client client;
+    private final String clusterId;
+
+    /**
+     * @param clusterId cluster the token is scoped to, workloads of other clusters are refused; null for any cluster
+     */
+    KubernetesPatcher(Rancher2Client client, String clusterId) {
+        this.client = client;
+        this.clusterId = clusterId == null || clusterId.isEmpty() ? null : clusterId;
+    }
+
+    /**
+     * @param workload workload API path, eg: /project/c-h4hxd:p-c9j8z/workloads/deployment:default:nginx
+     * @return url of the workload in Kubernetes API, eg: .../k8s/clusters/c-h4hxd/apis/apps/v1/namespaces/default/deployments/nginx
+     * @throws AbortException if workload is not a deployment, stateful set or daemon set, or of another cluster
+     */
+    String url(String workload) throws AbortException {
+        // /project/<clusterId>:<projectId>/workloads/<kind>:<namespace>:<name>
+        String[] parts = WorkloadRedeployer.toApiPath(workload).split("/");
+        String[] id = parts.length == 5 && "workloads".equals(parts[3]) ? parts[4].split(":", 3) : new String[0];
+        if (id.length != 3) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_kubernetesBadWorkload(workload));
+        }
+        String resource = RESOURCES.get(id[0]);
+        if (resource == null) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_kubernetesKindNotSupported(id[0], workload));
+        }
+        String cluster = parts[2].split(":")[0];
+        if (clusterId != null && !clusterId.equals(cluster)) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_kubernetesClusterMismatch(workload, clusterId));
+        }
+        return client.serverUrl("/k8s/clusters/" + cluster + "/apis/apps/v1/namespaces/" + id[1] + "/" + resource + "/" + id[2]);
+    }
+
+    /**
+     * GET workload and PATCH new image tags into its pod template.
+     * the patch carries the resourceVersion read, so a concurrent change makes it fail with 409 instead of being lost.
+     * @param url workload url in Kubernetes API
+     * @param imageTags image name without version to new image tag
+     * @param previousTags filled with image name to tag running before the update
+     * @param alwaysPull set imagePullPolicy of updated containers to Always
+     * @param onlyIfChanged skip the PATCH if every requested image tag equals the running one
+     * @param uncertain the last attempt may have been applied, if the workload runs the new tags now it was,
+     *                  and previousTags are kept
+     * @return false if the update was skipped because no image tag changed
+     * @throws WorkloadRedeployer.RetryableUpdateException on conflict, if server is overloaded or failed
+     */
+    boolean update(String url, Map<String, String> imageTags, Map<String, String> previousTags, boolean alwaysPull,
+                   boolean onlyIfChanged, boolean uncertain, PrintStream logger, String prefix)
+            throws IOException, InterruptedException {
+        JsonNode workload;
+        try (CloseableHttpResponse response = client.execute(
+                client.get(url).build(), true, Rancher2Metrics.Phase.GET)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw new AbortException(Messages.Rancher2RedeployBuilder_badResponse(
+                        status, EntityUtils.toString(response.getEntity())));
+            }
+            long start = System.nanoTime();
+            workload = MAPPER.readTree(response.getEntity().getContent());
+            EntityUtils.consume(response.getEntity());
+            client.getMetrics().record(Rancher2Metrics.Phase.JSON, System.nanoTime() - start);
+        }
+
+        ObjectNode patch = MAPPER.createObjectNode();
+        patch.putObject("metadata").put("resourceVersion", workload.path("metadata").path("resourceVersion").asText());
+        ObjectNode template = patch.putObject("spec").putObject("template");
+        template.putObject("metadata").putObject("annotations")
+                .put(WorkloadRewriter.TIMESTAMP_ANNOTATION, WorkloadRewriter.timestamp());
+        ObjectNode podSpec = template.putObject("spec");
+
+        Set<String> workloadImages = new HashSet<>();
+        Set<String> updatedImages = new HashSet<>();
+        Map<String, String> runningTags = new LinkedHashMap<>();
+        boolean changed = false;
+        for (String field : new String[]{"initContainers", "containers"}) {
+            ArrayNode patched = null;
+            for (JsonNode container : workload.path("spec").path("template").path("spec").path(field)) {
+                String oldTag = container.path("image").asText();
+                String image = WorkloadRedeployer.parseImageName(oldTag);
+                workloadImages.add(image);
+                String newTag = imageTags.get(image);
+                if (newTag == null) {
+                    continue;
+                }
+                updatedImages.add(image);
+                changed |= !newTag.equals(oldTag);
+                runningTags.put(image, oldTag);
+                if (patched == null) {
+                    patched = podSpec.putArray(field);
+                }
+                ObjectNode patchedContainer = patched.addObject();
+                patchedContainer.put("name", container.path("name").asText());
+                patchedContainer.put("image", newTag);
+                if (alwaysPull) {
+                    patchedContainer.put("imagePullPolicy", "Always");
+                }
+            }
+        }
+        if (updatedImages.size() != imageTags.size()) {
+            throw new WorkloadRedeployer.ImagesNotFoundException(workloadImages, imageTags.keySet());
+        }
+        if (uncertain && WorkloadRedeployer.isApplied(previousTags, imageTags, changed)) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_updateApplied());
+            return true;
+        }
+        previousTags.clear();
+        previousTags.putAll(runningTags);
+        for (Map.Entry<String, String> runningTag : runningTags.entrySet()) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_setImageTag(
+                    runningTag.getValue(), imageTags.get(runningTag.getKey())));
+        }
+        if (onlyIfChanged && !changed) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_unchanged());
+            return false;
+        }
+
+        HttpUriRequest request = client.patch(url, STRATEGIC_MERGE_PATCH)
+                .setEntity(new ByteArrayEntity(MAPPER.writeValueAsBytes(patch)))
+                .build();
+        try (CloseableHttpResponse response = client.execute(request, false, Rancher2Metrics.Phase.PATCH)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == 200) {
+                EntityUtils.consume(response.getEntity());
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_kubernetesPatched());
+                return true;
+            }
+            String message = Messages.Rancher2RedeployBuilder_badResponse(status, EntityUtils.toString(response.getEntity()));
+            throw WorkloadRedeployer.RetryableUpdateException.of(status, message);
+        }
+    }
+
+    /**
+     * @param workload Kubernetes object, as returned by {@link #url(String)}
+     * @return true if the controller has seen the latest spec and all pods run it and are available
+     */
+    static boolean isRolledOut(JsonNode workload) {
+        JsonNode status = workload.path("status");
+        if (status.path("observedGeneration").asLong() < workload.path("metadata").path("generation").asLong()) {
+            return false;
+        }
+        if ("DaemonSet".equals(workload.path("kind").asText())) {
+            long desired = status.path("desiredNumberScheduled").asLong();
+            return status.path("updatedNumberScheduled").asLong() >= desired
+                    && status.path("numberAvailable").asLong() >= desired;
+        }
+        long replicas = workload.path("spec").path("replicas").asLong(1);
+        if ("StatefulSet".equals(workload.path("kind").asText())
+                && !status.path("updateRevision").asText().equals(status.path("currentRevision").asText())) {
+            return false;
+        }
+        return status.path("updatedReplicas").asLong() >= replicas
+                && status.path("readyReplicas").asLong() >= replicas
+                && status.path("availableReplicas").asLong(status.path("readyReplicas").asLong()) >= replicas
+                // old pods still terminating
+                && status.path("replicas").asLong() <= replicas;
+    }
+
+    /**
+     * @param workload Kubernetes object
+     * @return message why the rollout failed, null if it did not
+     */
+    static String rolloutFailure(JsonNode workload) {
+        if (workload.path("status").path("observedGeneration").asLong()
+                < workload.path("metadata").path("generation").asLong()) {
+            // conditions are still about the spec before the patch
+            return null;
+        }
+        for (JsonNode condition : workload.path("status").path("conditions")) {
+            if ("Progressing".equals(condition.path("type").asText())
+                    && "ProgressDeadlineExceeded".equals(condition.path("reason").asText())) {
+                return condition.path("message").asText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param workload Kubernetes object
+     * @return rollout progress, eg: 2/3 updated, 1/3 available
+     */
+    static String rolloutState(JsonNode workload) {
+        JsonNode status = workload.path("status");
+        if ("DaemonSet".equals(workload.path("kind").asText())) {
+            long desired = status.path("desiredNumberScheduled").asLong();
+            return status.path("updatedNumberScheduled").asLong() + "/" + desired + " updated, "
+                    + status.path("numberAvailable").asLong() + "/" + desired + " available";
+        }
+        long replicas = workload.path("spec").path("replicas").asLong(1);
+        return status.path("updatedReplicas").asLong() + "/" + replicas + " updated, "
+                + status.path("availableReplicas").asLong(status.path("readyReplicas").asLong()) + "/" + replicas
+                + " available";
+    }
+}
@@ -0,0 +1,334 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.AbortException;
+import hudson.Util;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * authenticated access to a Rancher2.x API endpoint.
+ * idempotent requests are retried on I/O errors, 429 and 5xx with exponential backoff and full jitter,
+ * all requests go through the circuit breaker and the throttle of the endpoint.
+ */
+public class Rancher2Client {
+    static final int MAX_ATTEMPTS = Integer.getInteger(Rancher2Client.class.getName() + ".maxAttempts", 4);
+    private static final long BASE_DELAY = 500;
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(10);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Logger LOGGER = Logger.getLogger(Rancher2Client.class.getName());
+    // smaller bodies are not worth compressing
+    private static final int MIN_COMPRESS_BYTES = 1024;
+    // endpoints which refused a gzip request body, they get plain bodies until Jenkins restarts
+    private static final Set<String> GZIP_REFUSED = ConcurrentHashMap.newKeySet();
+
+    private final CloseableHttpClient client;
+    private final String endpoint;
+    private final String bearerToken;
+    private final CircuitBreaker circuitBreaker;
+    private final EndpointThrottle throttle;
+    private final AtomicLong throttleWait = new AtomicLong();
+    private final Rancher2Metrics metrics;
+    private boolean compressRequests;
+
+    public Rancher2Client(CloseableHttpClient client, String endpoint, String bearerToken) {
+        this(client, endpoint, bearerToken, 0, 0);
+    }
+
+    /**
+     * @param requestsPerSecond max requests per second to this endpoint from all builds, 0 to use global default
+     * @param maxConcurrentRequests max requests in flight to this endpoint from all builds, 0 to use global default
+     */
+    public Rancher2Client(CloseableHttpClient client, String endpoint, String bearerToken,
+                          int requestsPerSecond, int maxConcurrentRequests) {
+        this.client = client;
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+        this.bearerToken = bearerToken;
+        this.circuitBreaker = CircuitBreaker.of(this.endpoint);
+        this.throttle = EndpointThrottle.of(this.endpoint, requestsPerSecond, maxConcurrentRequests);
+        this.metrics = new Rancher2Metrics(this.endpoint);
+    }
+
+    /**
+     * @param compressRequests send large request bodies compressed with gzip, unless the endpoint refused it before
+     */
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    /**
+     * @param body request body, repeatable
+     * @return body compressed with gzip if enabled and worth it, otherwise the body itself
+     */
+    HttpEntity compress(HttpEntity body) throws IOException {
+        long length = body.getContentLength();
+        if (!compressRequests || length < MIN_COMPRESS_BYTES || GZIP_REFUSED.contains(endpoint)) {
+            return body;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, length / 4 + 64));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            body.writeTo(gzip);
+        }
+        return new GzipEntity(out.toByteArray(), length);
+    }
+
+    /**
+     * Rancher answers 422 InvalidBodyContent to a body it cannot read, proxies rather 400 or 415.
+     * the status alone does not tell a refused encoding from a bad body, see {@link #compressionRefused(int)}.
+     *
+     * @param sent body of the request
+     * @param status response status code
+     * @return true if the server may not have read a compressed body, the request should be sent again uncompressed
+     */
+    boolean refusedCompression(HttpEntity sent, int status) {
+        return sent instanceof GzipEntity && (status == 400 || status == 415 || status == 422);
+    }
+
+    /**
+     * the endpoint refused a compressed body and accepted the same body uncompressed,
+     * it gets plain bodies until Jenkins restarts.
+     *
+     * @param status response status code of the compressed request
+     */
+    void compressionRefused(int status) {
+        if (GZIP_REFUSED.add(endpoint)) {
+            LOGGER.info(endpoint + " refused a gzip request body with status " + status + ", send plain bodies");
+        }
+    }
+
+    /**
+     * forget which endpoints refused compressed bodies, they get compressed bodies again
+     */
+    static void resetRefusedCompression() {
+        GZIP_REFUSED.clear();
+    }
+
+    /**
+     * @param bearerToken token
+     * @return SHA-256 of the token in hex, to tell tokens apart in shared state without keeping them
+     */
+    static String digest(String bearerToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(bearerToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return digest of the token of this client
+     */
+    String getTokenDigest() {
+        return digest(bearerToken);
+    }
+
+    /**
+     * @return phase timings of requests made by this client
+     */
+    public Rancher2Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return milliseconds requests of this client waited for the endpoint throttle
+     */
+    public long getThrottleWait() {
+        return throttleWait.get();
+    }
+
+    /**
+     * @param path API path, start with /
+     * @return absolute url
+     */
+    public String url(String path) {
+        return endpoint + path;
+    }
+
+    /**
+     * @param path path on Rancher2.x server outside of the API, start with /, eg: /k8s/clusters/c-h4hxd/api
+     * @return absolute url, the /v3 suffix of endpoint is dropped
+     */
+    public String serverUrl(String path) {
+        return (endpoint.endsWith("/v3") ? endpoint.substring(0, endpoint.length() - 3) : endpoint) + path;
+    }
+
+    public RequestBuilder get(String url) {
+        return RequestBuilder.get(url)
+                .addHeader("Authorization", "Bearer " + bearerToken)
+                .addHeader("Accept", "application/json");
+    }
+
+    public RequestBuilder put(String url) {
+        return RequestBuilder.put(url)
+                .addHeader("Authorization", "Bearer " + bearerToken)
+                .addHeader("Accept", "application/json")
+                .addHeader("Content-Type", "application/json; charset=utf-8");
+    }
+
+    /**
+     * @param contentType patch format, eg: application/strategic-merge-patch+json
+     */
+    public RequestBuilder patch(String url, String contentType) {
+        return RequestBuilder.patch(url)
+                .addHeader("Authorization", "Bearer " + bearerToken)
+                .addHeader("Accept", "application/json")
+                .addHeader("Content-Type", contentType);
+    }
+
+    /**
+     * @param request request to send
+     * @param idempotent retry the request on I/O error, 429 and 5xx
+     * @param phase phase the time of each attempt is recorded to, null if the caller times the request itself
+     * @return response of the last attempt
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, boolean idempotent, Rancher2Metrics.Phase phase)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            EndpointThrottle.Permit permit = throttle.acquire();
+            throttleWait.addAndGet(permit.getWaitMillis());
+            CloseableHttpResponse response = null;
+            IOException failure = null;
+            try {
+                circuitBreaker.acquire();
+                long start = System.nanoTime();
+                metrics.attach();
+                try {
+                    // the slot is held until the caller closed the response, after reading its body
+                    response = new ThrottledResponse(client.execute(request), permit);
+                    metrics.countRequest(response.getStatusLine().getStatusCode());
+                } catch (IOException | RuntimeException e) {
+                    metrics.countRequest(0);
+                    circuitBreaker.onFailure();
+                    if (e instanceof RuntimeException) {
+                        throw (RuntimeException) e;
+                    }
+                    failure = (IOException) e;
+                } finally {
+                    metrics.detach();
+                    if (phase != null) {
+                        metrics.record(phase, System.nanoTime() - start);
+                    }
+                }
+            } finally {
+                if (response == null) {
+                    permit.release();
+                }
+            }
+            if (failure != null) {
+                if (!idempotent || attempt >= MAX_ATTEMPTS) {
+                    throw failure;
+                }
+                backoff(attempt, null);
+                continue;
+            }
+            int status = response.getStatusLine().getStatusCode();
+            if (!isRetryable(status)) {
+                circuitBreaker.onSuccess();
+                return response;
+            }
+            circuitBreaker.onFailure();
+            if (!idempotent || attempt >= MAX_ATTEMPTS) {
+                return response;
+            }
+            response.close();
+            backoff(attempt, response);
+        }
+    }
+
+    /**
+     * GET a collection, following pagination.next until the last page.
+     * @param url collection API url
+     * @return data items of all pages
+     * @throws AbortException if server responds with other than 200
+     */
+    public List<JsonNode> list(String url) throws IOException, InterruptedException {
+        List<JsonNode> items = new ArrayList<>();
+        String next = url;
+        while (next != null) {
+            JsonNode page;
+            try (CloseableHttpResponse response = execute(get(next).build(), true, Rancher2Metrics.Phase.GET)) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status != 200) {
+                    throw new AbortException(Messages.Rancher2RedeployBuilder_badResponse(
+                            status, EntityUtils.toString(response.getEntity())));
+                }
+                page = MAPPER.readTree(response.getEntity().getContent());
+                EntityUtils.consume(response.getEntity());
+            }
+            for (JsonNode item : page.path("data")) {
+                items.add(item);
+            }
+            String nextPage = page.path("pagination").path("next").asText(null);
+            next = nextPage == null || nextPage.isEmpty() || nextPage.equals(next) ? null : nextPage;
+        }
+        return items;
+    }
+
+    /**
+     * sleep before next attempt, honor Retry-After header if server sent one.
+     * @param attempt attempts made so far, start from 1
+     * @param response last response, may be null
+     */
+    void backoff(int attempt, HttpResponse response) throws InterruptedException {
+        long cap = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        Header retryAfter = response == null ? null : response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                delay = Math.max(delay, Math.min(MAX_DELAY, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue().trim()))));
+            } catch (NumberFormatException e) {
+                // http date form, keep computed delay
+            }
+        }
+        Thread.sleep(delay);
+    }
+
+    /**
+     * @return true if server is overloaded or failed, rather than rejected the request
+     */
+    static boolean isRetryable(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    /**
+     * request body compressed with gzip, knows its size before compression
+     */
+    static final class GzipEntity extends ByteArrayEntity {
+        private final long rawLength;
+
+        private GzipEntity(byte[] compressed, long rawLength) {
+            super(compressed, ContentType.APPLICATION_JSON);
+            setContentEncoding("gzip");
+            this.rawLength = rawLength;
+        }
+
+        long getRawLength() {
+            return rawLength;
+        }
+    }
+}
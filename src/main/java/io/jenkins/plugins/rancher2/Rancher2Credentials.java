@@ -8,4 +8,74 @@ public interface Rancher2Credentials extends StandardCredentials {
     String getEndpoint() throws IOException, InterruptedException;
     boolean isTrustCert() throws IOException, InterruptedException;
     String getBearerToken() throws IOException, InterruptedException;
+
+    /**
+     * @return max requests per second to the endpoint from all builds, 0 to use global default
+     */
+    default int getRequestsPerSecond() {
+        return 0;
+    }
+
+    /**
+     * @return max requests in flight to the endpoint from all builds, 0 to use global default
+     */
+    default int getMaxConcurrentRequests() {
+        return 0;
+    }
+
+    /**
+     * @return how clients connect to the endpoint
+     */
+    default ClientBuilder.Transport getTransport() {
+        return ClientBuilder.Transport.POOLED;
+    }
+
+    /**
+     * @return send large request bodies compressed with gzip
+     */
+    default boolean isCompressRequests() {
+        return false;
+    }
+
+    /**
+     * @return max seconds to open a connection, 0 to use global default
+     */
+    default int getConnectTimeout() {
+        return 0;
+    }
+
+    /**
+     * @return max seconds between two packets of a response, 0 to use global default
+     */
+    default int getReadTimeout() {
+        return 0;
+    }
+
+    /**
+     * @return max seconds to wait for a free pooled connection, 0 to use global default
+     */
+    default int getPoolTimeout() {
+        return 0;
+    }
+
+    /**
+     * @return true if the token is scoped to a single cluster, which then must be given by {@link #getClusterId()}
+     */
+    default boolean isSingleClusterToken() {
+        return false;
+    }
+
+    /**
+     * @return id of the cluster the token is scoped to, eg: c-h4hxd, may be empty if not scoped to a single cluster
+     */
+    default String getClusterId() {
+        return null;
+    }
+
+    /**
+     * @return redeploy through the Kubernetes API of the cluster proxied by Rancher2.x, instead of the /v3 API
+     */
+    default boolean isKubernetesApi() {
+        return false;
+    }
 }
@@ -13,6 +13,7 @@ import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.verb.POST;
 
@@ -27,6 +28,16 @@ public class Rancher2CredentialsImpl extends BaseStandardCredentials implements
     private String endpoint;
     private boolean trustCert;
     private final Secret bearerToken;
+    private int requestsPerSecond;
+    private int maxConcurrentRequests;
+    private ClientBuilder.Transport transport;
+    private int connectTimeout;
+    private int readTimeout;
+    private int poolTimeout;
+    private boolean compressRequests;
+    private boolean singleClusterToken;
+    private String clusterId;
+    private boolean kubernetesApi;
 
     @DataBoundConstructor
     public Rancher2CredentialsImpl(
@@ -57,6 +68,106 @@ public class Rancher2CredentialsImpl extends BaseStandardCredentials implements
         return bearerToken.getPlainText();
     }
 
+    @Override
+    public int getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    @DataBoundSetter
+    public void setRequestsPerSecond(int requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    @Override
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    @Override
+    public ClientBuilder.Transport getTransport() {
+        return transport == null ? ClientBuilder.Transport.POOLED : transport;
+    }
+
+    @DataBoundSetter
+    public void setTransport(ClientBuilder.Transport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getPoolTimeout() {
+        return poolTimeout;
+    }
+
+    @DataBoundSetter
+    public void setPoolTimeout(int poolTimeout) {
+        this.poolTimeout = poolTimeout;
+    }
+
+    @Override
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    @DataBoundSetter
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    @Override
+    public boolean isSingleClusterToken() {
+        return singleClusterToken;
+    }
+
+    @DataBoundSetter
+    public void setSingleClusterToken(boolean singleClusterToken) {
+        this.singleClusterToken = singleClusterToken;
+    }
+
+    @Override
+    public String getClusterId() {
+        return clusterId;
+    }
+
+    @DataBoundSetter
+    public void setClusterId(String clusterId) {
+        this.clusterId = clusterId == null ? null : clusterId.trim();
+    }
+
+    @Override
+    public boolean isKubernetesApi() {
+        return kubernetesApi;
+    }
+
+    @DataBoundSetter
+    public void setKubernetesApi(boolean kubernetesApi) {
+        this.kubernetesApi = kubernetesApi;
+    }
+
     @Extension
     public static class DescriptorImpl extends BaseStandardCredentialsDescriptor {
         @Nonnull
@@ -96,11 +207,46 @@ public class Rancher2CredentialsImpl extends BaseStandardCredentials implements
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckClusterId(@QueryParameter boolean singleClusterToken, @QueryParameter String value) {
+            if (singleClusterToken && (value == null || value.trim().isEmpty())) {
+                return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_clusterIdIsEmpty());
+            }
+            if (value != null && !value.trim().isEmpty() && !value.trim().startsWith("c-") && !"local".equals(value.trim())) {
+                return FormValidation.warning(Messages.Rancher2CredentialsImpl_DescriptorImpl_clusterIdNotId());
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckRequestsPerSecond(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxConcurrentRequests(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckConnectTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckReadTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckPoolTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @POST
         public FormValidation doTestConnection(
                 @QueryParameter("endpoint") final String endpoint,
                 @QueryParameter("trustCert") boolean trustCert,
-                @QueryParameter("bearerToken") final Secret bearerToken) throws IOException, ServletException {
+                @QueryParameter("bearerToken") final Secret bearerToken,
+                @QueryParameter("singleClusterToken") boolean singleClusterToken,
+                @QueryParameter("clusterId") final String clusterId,
+                @QueryParameter("transport") final String transport,
+                @QueryParameter("connectTimeout") final int connectTimeout,
+                @QueryParameter("readTimeout") final int readTimeout) throws IOException, ServletException {
             Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
             FormValidation validation = doCheckEndpoint(endpoint);
             if (validation.kind == FormValidation.Kind.ERROR) {
@@ -110,23 +256,40 @@ public class Rancher2CredentialsImpl extends BaseStandardCredentials implements
             if (validation.kind == FormValidation.Kind.ERROR) {
                 return validation;
             }
+            validation = doCheckClusterId(singleClusterToken, clusterId);
+            if (validation.kind == FormValidation.Kind.ERROR) {
+                return validation;
+            }
+            // tokens of a single cluster cannot list projects of all clusters
+            String path = singleClusterToken ? "/clusters/" + clusterId.trim() : "/projects";
 
-            try (CloseableHttpClient client = ClientBuilder.create(endpoint, trustCert)) {
-                RequestBuilder requestBuilder = RequestBuilder.get(endpoint + (endpoint.endsWith("/") ? "projects" : "/projects"));
+            ClientBuilder.Transport clientTransport;
+            try {
+                clientTransport = transport == null || transport.isEmpty() ? null : ClientBuilder.Transport.valueOf(transport);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_unknownTransport(transport));
+            }
+            ClientOptions options = new ClientOptions(clientTransport, connectTimeout, readTimeout, 0, 0);
+            // the form may hold unsaved settings, a shared client would be kept for them forever
+            try (CloseableHttpClient client = ClientBuilder.create(
+                    ClientBuilder.createConnectionManager(endpoint, trustCert, options), options)) {
+                RequestBuilder requestBuilder = RequestBuilder.get(
+                        (endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint) + path);
                 requestBuilder.addHeader("Authorization", "Bearer " + bearerToken.getPlainText());
                 HttpUriRequest request = requestBuilder.build();
-                CloseableHttpResponse response = client.execute(request);
-                if (response.getStatusLine().getStatusCode() == 200) {
-                    return FormValidation.ok(Messages.Rancher2CredentialsImpl_DescriptorImpl_connectSucceed());
-                }
-                if (response.getStatusLine().getStatusCode() == 401) {
-                    return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_badTokenScope());
+                try (CloseableHttpResponse response = client.execute(request)) {
+                    String body = EntityUtils.toString(response.getEntity());
+                    if (response.getStatusLine().getStatusCode() == 200) {
+                        return FormValidation.ok(Messages.Rancher2CredentialsImpl_DescriptorImpl_connectSucceed());
+                    }
+                    if (response.getStatusLine().getStatusCode() == 401) {
+                        return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_badTokenScope());
+                    }
+                    return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_badResponse(
+                            response.getStatusLine().getStatusCode(),
+                            body
+                    ));
                 }
-                String body = EntityUtils.toString(response.getEntity());
-                return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_badResponse(
-                        response.getStatusLine().getStatusCode(),
-                        body
-                ));
             } catch (Exception e) {
                 return FormValidation.error(Messages.Rancher2CredentialsImpl_DescriptorImpl_testError(e.getMessage()));
             }
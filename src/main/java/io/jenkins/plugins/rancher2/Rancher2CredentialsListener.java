@@ -0,0 +1,29 @@
+package io.jenkins.plugins.rancher2;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import hudson.model.ModelObject;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+
+/**
+ * drop resolved credentials, and what was derived from their tokens, when the credentials store holding them is saved.
+ * system credentials live in {@link SystemCredentialsProvider}, folder and user credentials
+ * are saved together with their folder or user.
+ * shared http clients hold no secret and are kept.
+ */
+@Extension
+public class Rancher2CredentialsListener extends SaveableListener {
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof SystemCredentialsProvider) {
+            CredentialCache.invalidate(Jenkins.get());
+        } else if (o instanceof User || o instanceof ItemGroup && !(o instanceof Jenkins)) {
+            CredentialCache.invalidate((ModelObject) o);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * workloads redeployed by a build, with the image tags they ran before and the ones deployed.
+ * kept with the build, so a failed rollout can be rolled back, and a later build can redeploy
+ * the images of this one without asking Rancher2.x for history.
+ */
+public class Rancher2DeploymentAction implements RunAction2 {
+    // guarded by this
+    private final List<Deployment> deployments = new ArrayList<>();
+    private transient Run<?, ?> run;
+
+    /**
+     * @param run build
+     * @return action of the build, added if absent
+     */
+    static Rancher2DeploymentAction of(Run<?, ?> run) {
+        synchronized (run) {
+            Rancher2DeploymentAction action = run.getAction(Rancher2DeploymentAction.class);
+            if (action == null) {
+                action = new Rancher2DeploymentAction();
+                run.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    /**
+     * @param workload workload API path
+     * @param previousImages image name to tag running before the update
+     * @param images image name to tag deployed
+     */
+    synchronized void record(String workload, Map<String, String> previousImages, Map<String, String> images) {
+        deployments.add(new Deployment(workload, previousImages, images));
+    }
+
+    /**
+     * @param workload workload API path
+     */
+    synchronized void setRolledBack(String workload) {
+        for (Deployment deployment : deployments) {
+            if (deployment.workload.equals(workload)) {
+                deployment.rolledBack = true;
+            }
+        }
+    }
+
+    /**
+     * @return workload API path to image tags deployed and not rolled back, later deployments of a workload win
+     */
+    synchronized Map<String, Map<String, String>> getDeployedImages() {
+        Map<String, Map<String, String>> images = new LinkedHashMap<>();
+        for (Deployment deployment : deployments) {
+            if (!deployment.rolledBack) {
+                images.put(deployment.workload, new LinkedHashMap<>(deployment.images));
+            }
+        }
+        return images;
+    }
+
+    public synchronized List<Deployment> getDeployments() {
+        return new ArrayList<>(deployments);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.Rancher2DeploymentAction_displayName();
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    public static final class Deployment {
+        private final String workload;
+        private final LinkedHashMap<String, String> previousImages;
+        private final LinkedHashMap<String, String> images;
+        private boolean rolledBack;
+
+        private Deployment(String workload, Map<String, String> previousImages, Map<String, String> images) {
+            this.workload = workload;
+            this.previousImages = new LinkedHashMap<>(previousImages);
+            this.images = new LinkedHashMap<>(images);
+        }
+
+        public String getWorkload() {
+            return workload;
+        }
+
+        public Map<String, String> getPreviousImages() {
+            return Collections.unmodifiableMap(previousImages);
+        }
+
+        public Map<String, String> getImages() {
+            return Collections.unmodifiableMap(images);
+        }
+
+        public boolean isRolledBack() {
+            return rolledBack;
+        }
+    }
+}
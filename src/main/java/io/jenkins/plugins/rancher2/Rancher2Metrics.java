@@ -0,0 +1,163 @@
+package io.jenkins.plugins.rancher2;
+
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * time spent in each phase of a redeploy.
+ * every sample goes to a controller-wide timer per endpoint and phase in Jenkins Metrics plugin,
+ * and is added to the totals of this build step, which are printed in build log.
+ */
+public final class Rancher2Metrics {
+    private static final ThreadLocal<Rancher2Metrics> CURRENT = new ThreadLocal<>();
+
+    public enum Phase {
+        CREDENTIALS, POOL, CONNECT, GET, JSON, PUT, PATCH, ROLLOUT;
+
+        private final String metricName = name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * bytes of request and response bodies, as seen by the plugin and as sent over the wire after compression
+     */
+    public enum Traffic {
+        SENT, SENT_WIRE, RECEIVED, RECEIVED_WIRE;
+
+        private final String metricName = name().toLowerCase(Locale.ENGLISH).replace('_', '.');
+    }
+
+    private final String endpointName;
+    private final AtomicLongArray totals = new AtomicLongArray(Phase.values().length);
+    private final AtomicLongArray traffic = new AtomicLongArray(Traffic.values().length);
+
+    public Rancher2Metrics(String endpoint) {
+        this.endpointName = endpointName(endpoint);
+    }
+
+    /**
+     * @param phase phase of redeploy
+     * @param nanos time spent
+     */
+    public void record(Phase phase, long nanos) {
+        totals.addAndGet(phase.ordinal(), nanos);
+        updateTimer(endpointName, phase, nanos);
+    }
+
+    /**
+     * @param kind body direction, before or after compression
+     * @param bytes body size
+     */
+    void count(Traffic kind, long bytes) {
+        traffic.addAndGet(kind.ordinal(), bytes);
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.counter(MetricRegistry.name("rancher2", endpointName, "bytes", kind.metricName)).inc(bytes);
+        }
+    }
+
+    /**
+     * @return bytes counted by this build step
+     */
+    public long getTraffic(Traffic kind) {
+        return traffic.get(kind.ordinal());
+    }
+
+    /**
+     * @param status response status code, 0 if request failed without response
+     */
+    void countRequest(int status) {
+        MetricRegistry registry = registry();
+        if (registry == null) {
+            return;
+        }
+        registry.counter(MetricRegistry.name("rancher2", endpointName, "requests")).inc();
+        if (status == 0 || Rancher2Client.isRetryable(status)) {
+            registry.counter(MetricRegistry.name("rancher2", endpointName, "failures")).inc();
+        }
+    }
+
+    /**
+     * @return phase totals in milliseconds, eg: get=12ms, put=30ms
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long nanos = totals.get(phase.ordinal());
+            if (nanos > 0) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(phase.metricName).append('=').append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * bind metrics to current thread, so the connection pool and socket factory can report
+     * connection acquisition and connect time of the request being executed.
+     */
+    void attach() {
+        CURRENT.set(this);
+    }
+
+    void detach() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return metrics bound to current thread, null if none
+     */
+    static Rancher2Metrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * record time of a phase happening inside http client, to current request and to the endpoint metrics
+     */
+    static void recordCurrent(String endpointName, Phase phase, long nanos) {
+        Rancher2Metrics current = CURRENT.get();
+        if (current != null) {
+            current.record(phase, nanos);
+        } else {
+            updateTimer(endpointName, phase, nanos);
+        }
+    }
+
+    private static void updateTimer(String endpointName, Phase phase, long nanos) {
+        MetricRegistry registry = registry();
+        if (registry != null) {
+            registry.timer(MetricRegistry.name("rancher2", endpointName, phase.metricName))
+                    .update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return metric registry of Jenkins, null if running outside of Jenkins, eg: in benchmarks
+     */
+    static MetricRegistry registry() {
+        return Jenkins.getInstanceOrNull() == null ? null : Metrics.metricRegistry();
+    }
+
+    /**
+     * @param endpoint rancher API url
+     * @return host and port part, used in metric names
+     */
+    static String endpointName(String endpoint) {
+        try {
+            URI uri = URI.create(endpoint);
+            if (uri.getHost() != null) {
+                return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through
+        }
+        return endpoint;
+    }
+}
@@ -3,13 +3,8 @@ package io.jenkins.plugins.rancher2;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import hudson.*;
 import hudson.model.Item;
-import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.model.AbstractProject;
 import hudson.model.Run;
@@ -19,35 +14,35 @@ import hudson.tasks.BuildStepDescriptor;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang.StringUtils;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.util.EntityUtils;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.Symbol;
 
 public class Rancher2RedeployBuilder extends Builder implements SimpleBuildStep {
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @Nonnull
     private String credential;
     @Nonnull
     private final String workload;
     private final String images;
     private final boolean alwaysPull;
+    private List<Rancher2Workload> workloads = Collections.emptyList();
+    private int parallelism = DescriptorImpl.defaultParallelism;
+    private boolean partialUpdate;
+    private int rolloutTimeout;
+    private boolean onlyIfChanged;
+    private boolean canary;
+    private int waveSize;
+    private boolean rollbackOnFailure;
+    private boolean previousImages;
 
     @DataBoundConstructor
     public Rancher2RedeployBuilder(
@@ -80,128 +75,133 @@ public class Rancher2RedeployBuilder extends Builder implements SimpleBuildStep
         return alwaysPull;
     }
 
-    @Override
-    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
-        PrintStream logger = listener.getLogger();
-        EnvVars envVars = run.getEnvironment(listener);
-        String credentialId = envVars.expand(this.credential);
-
-        Rancher2Credentials credential = CredentialsProvider.findCredentialById(
-                credentialId,
-                Rancher2Credentials.class,
-                run,
-                (DomainRequirement) null);
-        if (credential == null) {
-            throw new AbortException(Messages.Rancher2RedeployBuilder_missCredential(credentialId));
-        }
+    public List<Rancher2Workload> getWorkloads() {
+        return workloads;
+    }
 
-        Map<String, String> imageTags = new HashMap<>();
-        if (StringUtils.isNotBlank(images)) {
-            String expandImages = envVars.expand(images);
-            String[] imageArray = expandImages.split(";");
-            for (String imageTag : imageArray) {
-                String name = parseImageName(imageTag);
-                imageTags.put(name, imageTag);
-            }
-        }
-        Set<String> workloadImages = new HashSet<>();
-        Set<String> updatedImages = new HashSet<>();
+    @DataBoundSetter
+    public void setWorkloads(List<Rancher2Workload> workloads) {
+        this.workloads = workloads == null ? Collections.<Rancher2Workload>emptyList() : new ArrayList<>(workloads);
+    }
 
-        String endpoint = credential.getEndpoint();
-        if (endpoint.endsWith("/")) {
-            endpoint = endpoint.substring(0, endpoint.length() - 1);
-        }
-        try (CloseableHttpClient client = ClientBuilder.create(endpoint, credential.isTrustCert())) {
-            String url = endpoint + envVars.expand(workload);
-            if (url.startsWith("/p/")) {
-                url = url.replaceFirst("/p/", "/project/").replaceFirst("/workload/", "/workloads/");
-            }
-            HttpUriRequest request = RequestBuilder.get(url)
-                    .addHeader("Authorization", "Bearer " + credential.getBearerToken())
-                    .addHeader("Accept", "application/json")
-                    .build();
-
-            CloseableHttpResponse response = client.execute(request);
-            if (response.getStatusLine().getStatusCode() != 200) {
-                throw new AbortException(
-                        Messages.Rancher2RedeployBuilder_badResponse(
-                                response.getStatusLine().getStatusCode(),
-                                EntityUtils.toString(response.getEntity())
-                        )
-                );
-            }
+    public int getParallelism() {
+        return parallelism;
+    }
 
-            // modify json body for PUT request
-            JsonNode root = MAPPER.readTree(response.getEntity().getContent());
-            ObjectNode objectNode = (ObjectNode) root;
-            objectNode.remove("actions");
-            objectNode.remove("links");
-            //annotations
-            ObjectNode annotations = (ObjectNode) root.get("annotations");
-            String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new Date());
-            annotations.put("cattle.io/timestamp", timestamp);
-            JsonNode containers = root.get("containers");
-            for (int i = 0; i < containers.size(); i++) {
-                ObjectNode container = (ObjectNode) containers.get(i);
-                String oldTag = container.get("image").asText();
-                if (oldTag != null) {
-                    String name = parseImageName(oldTag);
-                    workloadImages.add(name);
-                    if (imageTags.containsKey(name)) {
-                        String newTag = imageTags.get(name);
-                        container.put("image", newTag);
-                        if (alwaysPull) {
-                            container.put("imagePullPolicy", "Always");
-                        }
-                        logger.println(Messages.Rancher2RedeployBuilder_setImageTag(oldTag, newTag));
-                        updatedImages.add(name);
-                    }
-                }
-            }
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
 
-            if (updatedImages.size() != imageTags.size()) {
-                throw new AbortException(Messages.Rancher2RedeployBuilder_notMatch(workloadImages, imageTags.keySet()));
-            }
+    public boolean isPartialUpdate() {
+        return partialUpdate;
+    }
 
-            HttpUriRequest putRequest = RequestBuilder.put(url)
-                    .addHeader("Authorization", "Bearer " + credential.getBearerToken())
-                    .addHeader("Accept", "application/json")
-                    .addHeader("Content-Type", "application/json; charset=utf-8")
-                    .setEntity(new StringEntity(MAPPER.writeValueAsString(root), "utf-8"))
-                    .build();
-
-            CloseableHttpResponse putResponse = client.execute(putRequest);
-            if (putResponse.getStatusLine().getStatusCode() != 200) {
-                throw new AbortException(Messages.Rancher2RedeployBuilder_badResponse(
-                        response.getStatusLine().getStatusCode(),EntityUtils.toString(response.getEntity())
-                ));
-            }
+    @DataBoundSetter
+    public void setPartialUpdate(boolean partialUpdate) {
+        this.partialUpdate = partialUpdate;
+    }
+
+    public int getRolloutTimeout() {
+        return rolloutTimeout;
+    }
+
+    @DataBoundSetter
+    public void setRolloutTimeout(int rolloutTimeout) {
+        this.rolloutTimeout = rolloutTimeout;
+    }
+
+    public boolean isOnlyIfChanged() {
+        return onlyIfChanged;
+    }
+
+    @DataBoundSetter
+    public void setOnlyIfChanged(boolean onlyIfChanged) {
+        this.onlyIfChanged = onlyIfChanged;
+    }
+
+    public boolean isCanary() {
+        return canary;
+    }
+
+    @DataBoundSetter
+    public void setCanary(boolean canary) {
+        this.canary = canary;
+    }
 
-            logger.println(Messages._Rancher2RedeployBuilder_success());
+    public int getWaveSize() {
+        return waveSize;
+    }
+
+    @DataBoundSetter
+    public void setWaveSize(int waveSize) {
+        this.waveSize = waveSize;
+    }
+
+    public boolean isRollbackOnFailure() {
+        return rollbackOnFailure;
+    }
+
+    @DataBoundSetter
+    public void setRollbackOnFailure(boolean rollbackOnFailure) {
+        this.rollbackOnFailure = rollbackOnFailure;
+    }
+
+    public boolean isPreviousImages() {
+        return previousImages;
+    }
+
+    @DataBoundSetter
+    public void setPreviousImages(boolean previousImages) {
+        this.previousImages = previousImages;
+    }
+
+    protected Object readResolve() {
+        if (workloads == null) {
+            workloads = Collections.emptyList();
         }
+        if (parallelism <= 0) {
+            parallelism = DescriptorImpl.defaultParallelism;
+        }
+        return this;
     }
 
-    /**
-     * @param imageTag
-     * @return image name without version
-     */
-    private static String parseImageName(String imageTag) {
-        int index = imageTag.lastIndexOf(":");
-        if (index < 0) {
-            return imageTag;
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        EnvVars envVars = run.getEnvironment(listener);
+        Rancher2RedeployTask task = new Rancher2RedeployTask(
+                envVars.expand(credential), alwaysPull, parallelism, partialUpdate, rolloutTimeout);
+        task.setOnlyIfChanged(onlyIfChanged);
+        task.setWaves(canary, waveSize);
+        task.setRollbackOnFailure(rollbackOnFailure);
+        task.setPreviousImages(previousImages);
+        task.addTarget(envVars.expand(workload), envVars.expand(images));
+        for (Rancher2Workload target : workloads) {
+            task.addTarget(envVars.expand(target.getWorkload()), envVars.expand(target.getImages()));
         }
-        return imageTag.substring(0, index);
+        task.perform(run, listener);
     }
 
     @Symbol("rancherRedeploy")
     @Extension
     public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        public static final int defaultParallelism = 4;
 
         public FormValidation doCheckWorkload(
                 @QueryParameter String value) {
+            return checkWorkload(value);
+        }
+
+        static FormValidation checkWorkload(String value) {
             if (StringUtils.isBlank(value)) {
                 return FormValidation.error(Messages.Rancher2RedeployBuilder_DescriptorImpl_requireWorkloadPath());
             }
+            if (!value.startsWith("/")) {
+                if (value.contains("${") || WorkloadIndex.Reference.parse(value) != null) {
+                    return FormValidation.ok();
+                }
+                return FormValidation.error(Messages.Rancher2RedeployBuilder_DescriptorImpl_badWorkloadReference());
+            }
             if (!value.startsWith("/project") && !value.startsWith("/p/")) {
                 return FormValidation.error(Messages.Rancher2RedeployBuilder_DescriptorImpl_startWithProject());
             }
@@ -210,6 +210,10 @@ public class Rancher2RedeployBuilder extends Builder implements SimpleBuildStep
 
         public FormValidation doCheckImages(
                 @QueryParameter String value) {
+            return checkImages(value);
+        }
+
+        static FormValidation checkImages(String value) {
             if (StringUtils.isBlank(value)) {
                 return FormValidation.ok();
             }
@@ -222,6 +226,21 @@ public class Rancher2RedeployBuilder extends Builder implements SimpleBuildStep
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckParallelism(
+                @QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckRolloutTimeout(
+                @QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckWaveSize(
+                @QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             return true;
@@ -248,8 +267,7 @@ public class Rancher2RedeployBuilder extends Builder implements SimpleBuildStep
                 }
             }
 
-            return CredentialsProvider.listCredentials(Rancher2Credentials.class,
-                    Jenkins.get(), ACL.SYSTEM, Collections.<DomainRequirement>emptyList(), CredentialsMatchers.always());
+            return CredentialCache.credentialItems();
         }
 
         public FormValidation doCheckCredential(
@@ -0,0 +1,341 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * pipeline step doing the same as {@link Rancher2RedeployBuilder}, but asynchronously.
+ * it does not need a node, so no executor is held while Rancher2.x works,
+ * and a redeploy in flight survives controller restart.
+ */
+public class Rancher2RedeployStep extends Step {
+    @Nonnull
+    private final String credential;
+    @Nonnull
+    private final String workload;
+    private final String images;
+    private final boolean alwaysPull;
+    private List<Rancher2Workload> workloads = Collections.emptyList();
+    private int parallelism = Rancher2RedeployBuilder.DescriptorImpl.defaultParallelism;
+    private boolean partialUpdate;
+    private int rolloutTimeout;
+    private boolean onlyIfChanged;
+    private boolean canary;
+    private int waveSize;
+    private boolean rollbackOnFailure;
+    private boolean previousImages;
+
+    @DataBoundConstructor
+    public Rancher2RedeployStep(
+            @Nonnull String credential,
+            @Nonnull String workload,
+            @Nullable String images,
+            boolean alwaysPull
+    ) {
+        this.credential = credential;
+        this.workload = workload;
+        this.images = images;
+        this.alwaysPull = alwaysPull;
+    }
+
+    @Nonnull
+    public String getCredential() {
+        return credential;
+    }
+
+    @Nonnull
+    public String getWorkload() {
+        return workload;
+    }
+
+    public String getImages() {
+        return images;
+    }
+
+    public boolean isAlwaysPull() {
+        return alwaysPull;
+    }
+
+    public List<Rancher2Workload> getWorkloads() {
+        return workloads;
+    }
+
+    @DataBoundSetter
+    public void setWorkloads(List<Rancher2Workload> workloads) {
+        this.workloads = workloads == null ? Collections.<Rancher2Workload>emptyList() : new ArrayList<>(workloads);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isPartialUpdate() {
+        return partialUpdate;
+    }
+
+    @DataBoundSetter
+    public void setPartialUpdate(boolean partialUpdate) {
+        this.partialUpdate = partialUpdate;
+    }
+
+    public int getRolloutTimeout() {
+        return rolloutTimeout;
+    }
+
+    @DataBoundSetter
+    public void setRolloutTimeout(int rolloutTimeout) {
+        this.rolloutTimeout = rolloutTimeout;
+    }
+
+    public boolean isOnlyIfChanged() {
+        return onlyIfChanged;
+    }
+
+    @DataBoundSetter
+    public void setOnlyIfChanged(boolean onlyIfChanged) {
+        this.onlyIfChanged = onlyIfChanged;
+    }
+
+    public boolean isCanary() {
+        return canary;
+    }
+
+    @DataBoundSetter
+    public void setCanary(boolean canary) {
+        this.canary = canary;
+    }
+
+    public int getWaveSize() {
+        return waveSize;
+    }
+
+    @DataBoundSetter
+    public void setWaveSize(int waveSize) {
+        this.waveSize = waveSize;
+    }
+
+    public boolean isRollbackOnFailure() {
+        return rollbackOnFailure;
+    }
+
+    @DataBoundSetter
+    public void setRollbackOnFailure(boolean rollbackOnFailure) {
+        this.rollbackOnFailure = rollbackOnFailure;
+    }
+
+    public boolean isPreviousImages() {
+        return previousImages;
+    }
+
+    @DataBoundSetter
+    public void setPreviousImages(boolean previousImages) {
+        this.previousImages = previousImages;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        EnvVars envVars = context.get(EnvVars.class);
+        if (envVars == null) {
+            envVars = new EnvVars();
+        }
+        Rancher2RedeployTask task = new Rancher2RedeployTask(
+                envVars.expand(credential), alwaysPull, parallelism, partialUpdate, rolloutTimeout);
+        task.setOnlyIfChanged(onlyIfChanged);
+        task.setWaves(canary, waveSize);
+        task.setRollbackOnFailure(rollbackOnFailure);
+        task.setPreviousImages(previousImages);
+        task.addTarget(envVars.expand(workload), envVars.expand(images));
+        for (Rancher2Workload target : workloads) {
+            task.addTarget(envVars.expand(target.getWorkload()), envVars.expand(target.getImages()));
+        }
+        return new Execution(context, task);
+    }
+
+    private static final class Execution extends StepExecution {
+        private static final long serialVersionUID = 1L;
+        private static final Logger LOGGER = Logger.getLogger(Rancher2RedeployStep.class.getName());
+        // steps beyond this wait in queue, each one blocks a thread while it waits for rollouts
+        private static final int THREADS = Integer.getInteger(Rancher2RedeployStep.class.getName() + ".threads", 10);
+        private static final long SAVE_TIMEOUT = Long.getLong(Rancher2RedeployStep.class.getName() + ".saveTimeout", 60);
+        private static final ExecutorService EXECUTOR = newExecutor();
+
+        private final Rancher2RedeployTask task;
+        private transient volatile Future<?> future;
+        // set by whoever completes the step first, the task or stop()
+        private transient volatile AtomicBoolean completed;
+
+        private Execution(StepContext context, Rancher2RedeployTask task) {
+            super(context);
+            this.task = task;
+        }
+
+        private static ExecutorService newExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "Rancher2RedeployStep"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            run();
+            return false;
+        }
+
+        @Override
+        public void onResume() {
+            // the task knows which workloads were updated before restart, they are not updated again
+            run();
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            AtomicBoolean done = completed;
+            if (done != null && !done.compareAndSet(false, true)) {
+                // the task already completed the step
+                return;
+            }
+            Future<?> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+            getContext().onFailure(cause);
+        }
+
+        private void run() {
+            final StepContext context = getContext();
+            final AtomicBoolean done = new AtomicBoolean();
+            completed = done;
+            task.setCheckpoint(() -> saveState(context));
+            // run as the build does, credentials are resolved for its authentication
+            final Authentication authentication = Jenkins.getAuthentication();
+            future = EXECUTOR.submit(() -> {
+                try (ACLContext ignored = ACL.as(authentication)) {
+                    // workloads skipped because nothing changed are the step result
+                    List<String> skipped = task.perform(context.get(Run.class), context.get(TaskListener.class));
+                    if (done.compareAndSet(false, true)) {
+                        context.onSuccess(skipped);
+                    }
+                } catch (Throwable t) {
+                    if (done.compareAndSet(false, true)) {
+                        context.onFailure(t);
+                    }
+                }
+            });
+        }
+
+        /**
+         * save the program with this execution and its task, wait until it is written
+         */
+        private static void saveState(StepContext context) {
+            try {
+                context.saveState().get(SAVE_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                LOGGER.log(Level.WARNING, "failed to save pipeline state after workload update", e);
+            }
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            Set<Class<?>> context = new HashSet<>();
+            context.add(Run.class);
+            context.add(TaskListener.class);
+            return context;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "rancherRedeployAsync";
+        }
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.Rancher2RedeployStep_DescriptorImpl_displayName();
+        }
+
+        @Override
+        public String getHelpFile(String fieldName) {
+            return builderDescriptor().getHelpFile(fieldName);
+        }
+
+        public FormValidation doCheckWorkload(@QueryParameter String value) {
+            return Rancher2RedeployBuilder.DescriptorImpl.checkWorkload(value);
+        }
+
+        public FormValidation doCheckImages(@QueryParameter String value) {
+            return Rancher2RedeployBuilder.DescriptorImpl.checkImages(value);
+        }
+
+        public FormValidation doCheckParallelism(@QueryParameter String value) {
+            return builderDescriptor().doCheckParallelism(value);
+        }
+
+        public FormValidation doCheckRolloutTimeout(@QueryParameter String value) {
+            return builderDescriptor().doCheckRolloutTimeout(value);
+        }
+
+        public FormValidation doCheckWaveSize(@QueryParameter String value) {
+            return builderDescriptor().doCheckWaveSize(value);
+        }
+
+        public ListBoxModel doFillCredentialItems(@AncestorInPath Item item, @QueryParameter String credential) {
+            return builderDescriptor().doFillCredentialItems(item, credential);
+        }
+
+        public FormValidation doCheckCredential(@AncestorInPath Item item, @QueryParameter String value) {
+            return builderDescriptor().doCheckCredential(item, value);
+        }
+
+        private static Rancher2RedeployBuilder.DescriptorImpl builderDescriptor() {
+            return Jenkins.get().getDescriptorByType(Rancher2RedeployBuilder.DescriptorImpl.class);
+        }
+    }
+}
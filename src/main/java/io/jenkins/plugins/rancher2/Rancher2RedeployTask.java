@@ -0,0 +1,392 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.AbortException;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a redeploy with all variables expanded, shared by the build step and the pipeline step.
+ * it remembers which workloads were already updated or skipped, so a resumed pipeline only waits for their rollout
+ * instead of redeploying them again.
+ */
+class Rancher2RedeployTask implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String credentialId;
+    // workload API path or reference to image tags, keep configured order
+    private final LinkedHashMap<String, Map<String, String>> targets = new LinkedHashMap<>();
+    private final boolean alwaysPull;
+    private final int parallelism;
+    private final boolean partialUpdate;
+    private final int rolloutTimeout;
+    private final Set<String> updated = ConcurrentHashMap.newKeySet();
+    private boolean onlyIfChanged;
+    private boolean canary;
+    private int waveSize;
+    private Set<String> skipped = ConcurrentHashMap.newKeySet();
+    private boolean rollbackOnFailure;
+    private boolean previousImages;
+    // workload API path to image tags running before our update, to roll back a failed rollout
+    private Map<String, Map<String, String>> previous = new ConcurrentHashMap<>();
+    private transient Rancher2DeploymentAction deployments;
+    private transient Runnable checkpoint;
+
+    Rancher2RedeployTask(String credentialId, boolean alwaysPull, int parallelism, boolean partialUpdate, int rolloutTimeout) {
+        this.credentialId = credentialId;
+        this.alwaysPull = alwaysPull;
+        this.parallelism = parallelism;
+        this.partialUpdate = partialUpdate;
+        this.rolloutTimeout = rolloutTimeout;
+    }
+
+    protected Object readResolve() {
+        if (skipped == null) {
+            skipped = ConcurrentHashMap.newKeySet();
+        }
+        if (previous == null) {
+            previous = new ConcurrentHashMap<>();
+        }
+        return this;
+    }
+
+    void setOnlyIfChanged(boolean onlyIfChanged) {
+        this.onlyIfChanged = onlyIfChanged;
+    }
+
+    /**
+     * @param canary redeploy the first workload alone, and the others only once it rolled out
+     * @param waveSize redeploy workloads in waves of this size, each wave starts when the previous one rolled out,
+     *                 0 to redeploy all at once
+     */
+    void setWaves(boolean canary, int waveSize) {
+        this.canary = canary;
+        this.waveSize = waveSize;
+    }
+
+    /**
+     * @param rollbackOnFailure put the previous image tags back if a workload does not roll out in time
+     */
+    void setRollbackOnFailure(boolean rollbackOnFailure) {
+        this.rollbackOnFailure = rollbackOnFailure;
+    }
+
+    /**
+     * @param previousImages ignore configured image tags, redeploy the ones of the previous successful build
+     */
+    void setPreviousImages(boolean previousImages) {
+        this.previousImages = previousImages;
+    }
+
+    /**
+     * @param checkpoint called each time a workload was updated, to persist this task,
+     *                   so a resume after restart does not update the workload again
+     */
+    void setCheckpoint(Runnable checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    void addTarget(String workload, String images) {
+        targets.put(workload, new LinkedHashMap<>(WorkloadRedeployer.parseImages(images)));
+    }
+
+    /**
+     * @return API paths of workloads skipped because no image tag changed
+     */
+    List<String> perform(Run<?, ?> run, TaskListener listener) throws IOException, InterruptedException {
+        PrintStream logger = listener.getLogger();
+        long start = System.nanoTime();
+        CredentialCache.Context credential = CredentialCache.resolve(run, credentialId);
+        if (credential == null) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_missCredential(credentialId));
+        }
+
+        String endpoint = credential.getEndpoint();
+        try (ClientRegistry.Lease lease = credential.acquire()) {
+            Rancher2Client client = credential.newClient(lease.getClient());
+            client.getMetrics().record(Rancher2Metrics.Phase.CREDENTIALS, System.nanoTime() - start);
+            WorkloadRedeployer redeployer = new WorkloadRedeployer(client, alwaysPull);
+            redeployer.setPartialUpdate(partialUpdate);
+            redeployer.setRolloutTimeout(rolloutTimeout);
+            redeployer.setOnlyIfChanged(onlyIfChanged);
+            if (credential.isKubernetesApi()) {
+                redeployer.setKubernetesApi(credential.getSingleClusterId());
+            }
+            deployments = Rancher2DeploymentAction.of(run);
+            try {
+                WorkloadIndex index = WorkloadIndex.of(
+                        endpoint, credential.getBearerToken(), credential.getSingleClusterId());
+                Map<String, Map<String, String>> resolved = resolve(client, index, logger);
+                if (previousImages) {
+                    usePreviousImages(run, resolved, logger);
+                }
+                if (canary || waveSize > 0) {
+                    redeployInWaves(redeployer, resolved, logger);
+                } else if (resolved.size() == 1) {
+                    Map.Entry<String, Map<String, String>> target = resolved.entrySet().iterator().next();
+                    redeploy(redeployer, target.getKey(), target.getValue(), logger, "");
+                    logger.println(Messages._Rancher2RedeployBuilder_success());
+                } else {
+                    redeployAll(redeployer, resolved, logger);
+                }
+                List<String> skippedWorkloads = new ArrayList<>();
+                for (String workload : resolved.keySet()) {
+                    if (skipped.contains(workload)) {
+                        skippedWorkloads.add(workload);
+                    }
+                }
+                if (!skippedWorkloads.isEmpty()) {
+                    logger.println(Messages.Rancher2RedeployBuilder_skippedSummary(
+                            skippedWorkloads.size(), resolved.size(), skippedWorkloads));
+                }
+                return skippedWorkloads;
+            } finally {
+                if (client.getThrottleWait() > 0) {
+                    logger.println(Messages.Rancher2RedeployBuilder_throttleWait(client.getThrottleWait()));
+                }
+                logger.println(Messages.Rancher2RedeployBuilder_timings(client.getMetrics().summary()));
+                Rancher2Metrics metrics = client.getMetrics();
+                if (metrics.getTraffic(Rancher2Metrics.Traffic.RECEIVED_WIRE) > 0) {
+                    logger.println(Messages.Rancher2RedeployBuilder_traffic(
+                            metrics.getTraffic(Rancher2Metrics.Traffic.RECEIVED),
+                            metrics.getTraffic(Rancher2Metrics.Traffic.RECEIVED_WIRE),
+                            metrics.getTraffic(Rancher2Metrics.Traffic.SENT),
+                            metrics.getTraffic(Rancher2Metrics.Traffic.SENT_WIRE)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return workload API path to image tags, workloads given by names or label selector are looked up,
+     * and clusters, projects or namespaces given for bulk update are scanned for workloads using the images
+     */
+    private Map<String, Map<String, String>> resolve(Rancher2Client client, WorkloadIndex index, PrintStream logger)
+            throws IOException, InterruptedException {
+        Map<String, Map<String, String>> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> target : targets.entrySet()) {
+            WorkloadIndex.Reference reference = WorkloadIndex.Reference.parse(target.getKey());
+            if (reference == null) {
+                resolved.put(WorkloadRedeployer.toApiPath(target.getKey()), target.getValue());
+                continue;
+            }
+            if (reference.isScope()) {
+                // bulk update, every workload gets the requested tags of the images it uses
+                Map<String, Set<String>> found = index.scan(client, reference, target.getValue().keySet());
+                logger.println(Messages.Rancher2RedeployBuilder_scanResult(
+                        reference, target.getValue().keySet(), found.size()));
+                if (found.isEmpty()) {
+                    // most likely a typo in the scope or an image name, do not report success for nothing done
+                    throw new AbortException(Messages.Rancher2RedeployBuilder_scopeEmpty(
+                            reference, target.getValue().keySet()));
+                }
+                for (Map.Entry<String, Set<String>> workload : found.entrySet()) {
+                    Map<String, String> imageTags = resolved.computeIfAbsent(workload.getKey(), k -> new LinkedHashMap<>());
+                    for (String image : workload.getValue()) {
+                        imageTags.put(image, target.getValue().get(image));
+                    }
+                }
+                continue;
+            }
+            List<String> paths = index.resolve(client, reference);
+            logger.println(Messages.Rancher2RedeployBuilder_workloadResolved(reference, paths));
+            for (String path : paths) {
+                resolved.put(path, target.getValue());
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * replace image tags of every workload with the ones the previous successful build deployed to it
+     */
+    private static void usePreviousImages(Run<?, ?> run, Map<String, Map<String, String>> resolved, PrintStream logger)
+            throws AbortException {
+        Run<?, ?> previousBuild = run.getPreviousSuccessfulBuild();
+        Rancher2DeploymentAction action = previousBuild == null
+                ? null : previousBuild.getAction(Rancher2DeploymentAction.class);
+        Map<String, Map<String, String>> deployed = action == null
+                ? Collections.emptyMap() : action.getDeployedImages();
+        for (Map.Entry<String, Map<String, String>> target : resolved.entrySet()) {
+            Map<String, String> imageTags = deployed.get(target.getKey());
+            if (imageTags == null) {
+                throw new AbortException(Messages.Rancher2RedeployBuilder_noPreviousDeployment(target.getKey()));
+            }
+            logger.println(Messages.Rancher2RedeployBuilder_previousImages(
+                    target.getKey(), previousBuild.getDisplayName(), imageTags.values()));
+            target.setValue(imageTags);
+        }
+    }
+
+    private void redeploy(WorkloadRedeployer redeployer, String workload, Map<String, String> imageTags,
+                          PrintStream logger, String prefix) throws IOException, InterruptedException {
+        if (updated.contains(workload)) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_alreadyUpdated());
+        } else {
+            Map<String, String> previousTags = new LinkedHashMap<>();
+            if (!redeployer.update(workload, imageTags, previousTags, logger, prefix)) {
+                skipped.add(workload);
+            }
+            previous.put(workload, previousTags);
+            deployments.record(workload, previousTags, imageTags);
+            updated.add(workload);
+            if (checkpoint != null) {
+                checkpoint.run();
+            }
+        }
+        if (!skipped.contains(workload)) {
+            try {
+                redeployer.awaitRollout(workload, logger, prefix);
+            } catch (AbortException e) {
+                if (rollbackOnFailure) {
+                    rollback(redeployer, workload, logger, prefix);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * put back the image tags a workload ran before our update, the build fails anyway
+     */
+    private void rollback(WorkloadRedeployer redeployer, String workload, PrintStream logger, String prefix)
+            throws InterruptedException {
+        Map<String, String> previousTags = previous.get(workload);
+        if (previousTags == null || previousTags.isEmpty()) {
+            return;
+        }
+        logger.println(prefix + Messages.Rancher2RedeployBuilder_rollbackStart(previousTags.values()));
+        try {
+            redeployer.update(workload, previousTags, new LinkedHashMap<>(), logger, prefix);
+            redeployer.awaitRollout(workload, logger, prefix);
+            deployments.setRolledBack(workload);
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_rollbackSucceed());
+        } catch (IOException e) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_rollbackFailed(e.getMessage()));
+        }
+    }
+
+    /**
+     * redeploy canary and waves one after another, each wave is gated by the rollout of the previous one,
+     * and no more waves are started once a workload failed.
+     */
+    private void redeployInWaves(WorkloadRedeployer redeployer, Map<String, Map<String, String>> targets,
+                                 PrintStream logger) throws InterruptedException, IOException {
+        if (rolloutTimeout <= 0) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_wavesNeedRolloutTimeout());
+        }
+        List<Map<String, Map<String, String>>> waves = planWaves(targets, canary, waveSize);
+        int finished = 0;
+        for (int i = 0; i < waves.size(); i++) {
+            Map<String, Map<String, String>> wave = waves.get(i);
+            logger.println(Messages.Rancher2RedeployBuilder_waveStart(i + 1, waves.size(), wave.keySet()));
+            int failed = redeployBatch(redeployer, wave, logger);
+            finished += wave.size();
+            if (failed > 0) {
+                throw new AbortException(Messages.Rancher2RedeployBuilder_waveFailed(
+                        i + 1, failed, wave.size(), targets.size() - finished));
+            }
+        }
+        logger.println(Messages._Rancher2RedeployBuilder_success());
+    }
+
+    /**
+     * @param targets workloads in configured order
+     * @param canary first workload forms a wave of its own
+     * @param waveSize max workloads per wave, 0 for no limit
+     * @return workloads split into waves
+     */
+    static List<Map<String, Map<String, String>>> planWaves(Map<String, Map<String, String>> targets,
+                                                             boolean canary, int waveSize) {
+        List<Map<String, Map<String, String>>> waves = new ArrayList<>();
+        Map<String, Map<String, String>> wave = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, String>> target : targets.entrySet()) {
+            wave.put(target.getKey(), target.getValue());
+            boolean canaryWave = canary && waves.isEmpty();
+            if (canaryWave || waveSize > 0 && wave.size() >= waveSize) {
+                waves.add(wave);
+                wave = new LinkedHashMap<>();
+            }
+        }
+        if (!wave.isEmpty()) {
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    /**
+     * run GET/modify/PUT of all workloads and print a summary, fail if any workload failed.
+     */
+    private void redeployAll(WorkloadRedeployer redeployer, Map<String, Map<String, String>> targets,
+                             PrintStream logger) throws InterruptedException, IOException {
+        int failed = redeployBatch(redeployer, targets, logger);
+        if (failed > 0) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_batchFailed(failed, targets.size()));
+        }
+        logger.println(Messages._Rancher2RedeployBuilder_success());
+    }
+
+    /**
+     * run GET/modify/PUT of all workloads on a bounded thread pool, print progress as they finish and a summary.
+     * @return number of failed workloads
+     */
+    private int redeployBatch(final WorkloadRedeployer redeployer, Map<String, Map<String, String>> targets,
+                              final PrintStream logger) throws InterruptedException {
+        int threads = Math.max(1, Math.min(parallelism, targets.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Rancher2RedeployBuilder"));
+        Map<String, Future<Long>> results = new LinkedHashMap<>();
+        final int total = targets.size();
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        try {
+            for (final Map.Entry<String, Map<String, String>> target : targets.entrySet()) {
+                results.put(target.getKey(), executor.submit(() -> {
+                    long start = System.currentTimeMillis();
+                    try {
+                        redeploy(redeployer, target.getKey(), target.getValue(), logger, "[" + target.getKey() + "] ");
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        throw e;
+                    } finally {
+                        logger.println(Messages.Rancher2RedeployBuilder_progress(
+                                finished.incrementAndGet(), total, failures.get()));
+                    }
+                    return System.currentTimeMillis() - start;
+                }));
+            }
+
+            int failed = 0;
+            for (Map.Entry<String, Future<Long>> result : results.entrySet()) {
+                try {
+                    long duration = result.getValue().get();
+                    logger.println(Messages.Rancher2RedeployBuilder_workloadSucceed(result.getKey(), duration));
+                } catch (ExecutionException e) {
+                    failed++;
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    logger.println(Messages.Rancher2RedeployBuilder_workloadFailed(result.getKey(), cause.getMessage()));
+                }
+            }
+            return failed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * an additional workload to redeploy in the same build step, with its own images.
+ */
+public class Rancher2Workload extends AbstractDescribableImpl<Rancher2Workload> {
+    @Nonnull
+    private final String workload;
+    private final String images;
+
+    @DataBoundConstructor
+    public Rancher2Workload(@Nonnull String workload, @Nullable String images) {
+        this.workload = workload;
+        this.images = images;
+    }
+
+    @Nonnull
+    public String getWorkload() {
+        return workload;
+    }
+
+    public String getImages() {
+        return images;
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<Rancher2Workload> {
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.Rancher2Workload_DescriptorImpl_displayName();
+        }
+
+        public FormValidation doCheckWorkload(@QueryParameter String value) {
+            return Rancher2RedeployBuilder.DescriptorImpl.checkWorkload(value);
+        }
+
+        public FormValidation doCheckImages(@QueryParameter String value) {
+            return Rancher2RedeployBuilder.DescriptorImpl.checkImages(value);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.AbortException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * controller-wide coordinator of redeploys of one workload, shared by all builds.
+ * updates of the same workload never run concurrently. builds asking for an update while another one
+ * is waiting or running join the next batch, their image tags are merged, later tags win,
+ * and the batch is applied with a single GET/PUT by the build which opened it.
+ * only builds using the same token and update options share a coordinator, so nobody's tags are applied
+ * with another build's credential. a build asking for images the workload does not use fails alone,
+ * the tags of the others are applied without it.
+ * an optional debounce window lets a batch collect more builds before it starts.
+ */
+final class RedeployCoordinator {
+    static final long DEBOUNCE_MILLIS = Long.getLong(RedeployCoordinator.class.getName() + ".debounceMillis", 0);
+    private static final ConcurrentMap<Key, RedeployCoordinator> COORDINATORS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock running = new ReentrantLock(true);
+    // builds using this coordinator, it is dropped when the last one leaves, changed only inside COORDINATORS.compute
+    private int users;
+    // batch accepting more builds, guarded by this
+    private Batch pending;
+
+    private RedeployCoordinator() {
+    }
+
+    /**
+     * run an update through the coordinator of the workload, joining a batch of other builds if there is one.
+     * @param key workload and what the update is made with
+     * @param imageTags image name without version to new image tag
+     * @param previous filled with what the workload ran before the update
+     * @param logger build log
+     * @param prefix prepended to every log line
+     * @param update applies merged image tags to the workload, runs in the thread of the build which opened the batch
+     * @return result of the update
+     */
+    static boolean update(Key key, Map<String, String> imageTags, Previous previous, PrintStream logger, String prefix,
+                          Update update) throws IOException, InterruptedException {
+        RedeployCoordinator coordinator = COORDINATORS.compute(key, (k, existing) -> {
+            RedeployCoordinator c = existing == null ? new RedeployCoordinator() : existing;
+            c.users++;
+            return c;
+        });
+        try {
+            return coordinator.update(imageTags, previous, logger, prefix, update);
+        } finally {
+            COORDINATORS.computeIfPresent(key, (k, c) -> --c.users == 0 ? null : c);
+        }
+    }
+
+    private boolean update(Map<String, String> imageTags, Previous previous, PrintStream logger, String prefix,
+                           Update update)
+            throws IOException, InterruptedException {
+        while (true) {
+            Batch batch;
+            Member member = new Member(imageTags);
+            boolean leader;
+            synchronized (this) {
+                leader = pending == null;
+                if (leader) {
+                    pending = new Batch();
+                }
+                batch = pending;
+                batch.members.add(member);
+            }
+            if (leader) {
+                lead(batch, update);
+            } else {
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_coalesced());
+            }
+            batch.done.await();
+            if (batch.abandoned) {
+                // the build which opened the batch was aborted before it started, try again
+                continue;
+            }
+            if (batch.members.size() > 1) {
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_coalescedResult(
+                        batch.members.size(), batch.imageTags.values()));
+            }
+            if (member.failure != null) {
+                throw member.failure instanceof AbortException
+                        ? new AbortException(member.failure.getMessage())
+                        : new IOException(member.failure.getMessage(), member.failure);
+            }
+            previous.imageTags.putAll(batch.previous.imageTags);
+            previous.observedGeneration = batch.previous.observedGeneration;
+            return batch.result;
+        }
+    }
+
+    private void lead(Batch batch, Update update) throws InterruptedException {
+        try {
+            if (DEBOUNCE_MILLIS > 0) {
+                Thread.sleep(DEBOUNCE_MILLIS);
+            }
+            running.lockInterruptibly();
+        } catch (InterruptedException e) {
+            close(batch);
+            batch.abandoned = true;
+            batch.done.countDown();
+            throw e;
+        }
+        try {
+            // builds arriving from now on open the next batch
+            close(batch);
+            apply(batch, update);
+        } catch (InterruptedException e) {
+            for (Member member : batch.members) {
+                member.failure = new AbortException(e.toString());
+            }
+            throw e;
+        } finally {
+            running.unlock();
+            batch.done.countDown();
+        }
+    }
+
+    /**
+     * apply merged image tags of the batch, if some builds ask for images the workload does not use,
+     * only they fail, and the tags of the others are applied again without theirs.
+     */
+    private static void apply(Batch batch, Update update) throws InterruptedException {
+        List<Member> members = new ArrayList<>(batch.members);
+        while (true) {
+            batch.imageTags.clear();
+            for (Member member : members) {
+                batch.imageTags.putAll(member.imageTags);
+            }
+            try {
+                batch.result = update.apply(batch.imageTags, batch.previous);
+                return;
+            } catch (WorkloadRedeployer.ImagesNotFoundException e) {
+                List<Member> matching = new ArrayList<>();
+                for (Member member : members) {
+                    if (e.getWorkloadImages().containsAll(member.imageTags.keySet())) {
+                        matching.add(member);
+                    } else {
+                        member.failure = new WorkloadRedeployer.ImagesNotFoundException(
+                                e.getWorkloadImages(), member.imageTags.keySet());
+                    }
+                }
+                if (matching.isEmpty() || matching.size() == members.size()) {
+                    for (Member member : matching) {
+                        member.failure = e;
+                    }
+                    return;
+                }
+                members = matching;
+            } catch (IOException | RuntimeException e) {
+                for (Member member : members) {
+                    member.failure = e;
+                }
+                return;
+            }
+        }
+    }
+
+    private synchronized void close(Batch batch) {
+        if (pending == batch) {
+            pending = null;
+        }
+    }
+
+    interface Update {
+        boolean apply(Map<String, String> imageTags, Previous previous) throws IOException, InterruptedException;
+    }
+
+    /**
+     * what the workload ran before an update, filled by the update
+     */
+    static final class Previous {
+        // image name to image tag
+        final Map<String, String> imageTags = new LinkedHashMap<>();
+        // observedGeneration of the workload status read before the update, -1 if unknown
+        volatile long observedGeneration = -1;
+    }
+
+    /**
+     * workload and everything an update of it is made with, builds share a batch only if all of it is equal
+     */
+    static final class Key {
+        private final String url;
+        private final String tokenDigest;
+        private final boolean alwaysPull;
+        private final boolean partialUpdate;
+        private final boolean onlyIfChanged;
+
+        /**
+         * @param url workload API url, includes endpoint
+         * @param tokenDigest digest of the token the update is made with
+         */
+        Key(String url, String tokenDigest, boolean alwaysPull, boolean partialUpdate, boolean onlyIfChanged) {
+            this.url = url;
+            this.tokenDigest = tokenDigest;
+            this.alwaysPull = alwaysPull;
+            this.partialUpdate = partialUpdate;
+            this.onlyIfChanged = onlyIfChanged;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return alwaysPull == key.alwaysPull
+                    && partialUpdate == key.partialUpdate
+                    && onlyIfChanged == key.onlyIfChanged
+                    && url.equals(key.url)
+                    && tokenDigest.equals(key.tokenDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, tokenDigest, alwaysPull, partialUpdate, onlyIfChanged);
+        }
+    }
+
+    /**
+     * a build waiting for a batch
+     */
+    private static final class Member {
+        private final Map<String, String> imageTags;
+        // written before done is counted down
+        private volatile Exception failure;
+
+        private Member(Map<String, String> imageTags) {
+            this.imageTags = imageTags;
+        }
+    }
+
+    private static final class Batch {
+        // guarded by coordinator until closed
+        private final List<Member> members = new ArrayList<>();
+        // merged tags of the members applied last, written by the build which opened the batch
+        private final Map<String, String> imageTags = new LinkedHashMap<>();
+        // filled by the update, read after done
+        private final Previous previous = new Previous();
+        private final CountDownLatch done = new CountDownLatch(1);
+        // written before done is counted down
+        private volatile boolean result;
+        private volatile boolean abandoned;
+    }
+}
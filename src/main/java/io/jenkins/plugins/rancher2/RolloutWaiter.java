@@ -0,0 +1,179 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.AbortException;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * track workload state after redeploy, until it becomes active or timeout expires.
+ * polling interval grows exponentially, and requests are conditional if server sends ETag,
+ * so an unchanged workload costs a 304 instead of a full body.
+ * both Rancher2.x workloads and Kubernetes objects are understood.
+ * right after an update the workload may still show the state of the old pods as active,
+ * so it only counts as rolled out once its status observed the new generation, or it was seen transitioning,
+ * or, for kinds without status, it stayed active for a grace period.
+ */
+public class RolloutWaiter {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final long MIN_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_INTERVAL = TimeUnit.SECONDS.toMillis(16);
+    // how long an active workload must stay active to count as rolled out, if its status cannot tell
+    private static final long GRACE_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(RolloutWaiter.class.getName() + ".graceSeconds", 10));
+
+    private final Rancher2Client client;
+
+    public RolloutWaiter(Rancher2Client client) {
+        this.client = client;
+    }
+
+    /**
+     * @param url workload url in Rancher2.x API or in Kubernetes API of its cluster
+     * @param timeout max time to wait in milliseconds
+     * @param baselineGeneration observedGeneration of the workload status read before the update, -1 if unknown
+     * @param logger build log
+     * @param prefix prepended to every log line
+     * @return time in milliseconds until workload became active
+     * @throws AbortException if rollout failed or timeout expired
+     */
+    public long await(String url, long timeout, long baselineGeneration, PrintStream logger, String prefix)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        long interval = MIN_INTERVAL;
+        String etag = null;
+        JsonNode root = null;
+        String lastState = null;
+        // whether the workload left the active state since the update, it tells a stale document from a new one
+        boolean progressed = false;
+        while (true) {
+            RequestBuilder requestBuilder = client.get(url);
+            if (etag != null) {
+                requestBuilder.addHeader("If-None-Match", etag);
+            }
+            // polls are part of the rollout wait the caller records
+            try (CloseableHttpResponse response = client.execute(requestBuilder.build(), true, null)) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status == 200) {
+                    Header etagHeader = response.getFirstHeader("ETag");
+                    etag = etagHeader == null ? null : etagHeader.getValue();
+                    root = MAPPER.readTree(response.getEntity().getContent());
+                    EntityUtils.consume(response.getEntity());
+                } else if (status != 304 || root == null) {
+                    throw new AbortException(Messages.Rancher2RedeployBuilder_badResponse(
+                            status, EntityUtils.toString(response.getEntity())));
+                } else {
+                    // unchanged, the same document is looked at again, a grace period may be over by now
+                    EntityUtils.consume(response.getEntity());
+                }
+            }
+
+            String state;
+            String message;
+            boolean available;
+            if (root.has("apiVersion") && root.has("metadata")) {
+                // Kubernetes object, the workload was patched through the Kubernetes API
+                state = KubernetesPatcher.rolloutState(root);
+                message = KubernetesPatcher.rolloutFailure(root);
+                if (message != null) {
+                    throw new AbortException(Messages.Rancher2RedeployBuilder_rolloutFailed(state, message));
+                }
+                message = "";
+                available = KubernetesPatcher.isRolledOut(root);
+            } else {
+                state = root.path("state").asText();
+                message = root.path("transitioningMessage").asText();
+                if ("error".equals(root.path("transitioning").asText())) {
+                    throw new AbortException(Messages.Rancher2RedeployBuilder_rolloutFailed(state, message));
+                }
+                progressed |= !"active".equals(state) || "yes".equals(root.path("transitioning").asText());
+                available = isAvailable(root, baselineGeneration)
+                        && (isObservedSince(root, baselineGeneration) || progressed
+                        || System.currentTimeMillis() - start >= GRACE_MILLIS);
+            }
+            if (available) {
+                long elapsed = System.currentTimeMillis() - start;
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_rolloutComplete(elapsed));
+                return elapsed;
+            }
+            if (!state.equals(lastState)) {
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_rolloutState(state, message));
+                lastState = state;
+                // state changed, rollout is progressing, look again soon
+                interval = MIN_INTERVAL;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new AbortException(Messages.Rancher2RedeployBuilder_rolloutTimeout(
+                        TimeUnit.MILLISECONDS.toSeconds(timeout), lastState));
+            }
+            Thread.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_INTERVAL);
+        }
+    }
+
+    /**
+     * @param workload workload document
+     * @param baselineGeneration observedGeneration of the workload status read before the update, -1 if unknown
+     * @return true if workload is active, its status is not older than the update,
+     * and all replicas are updated and available
+     */
+    static boolean isAvailable(JsonNode workload, long baselineGeneration) {
+        if (!"active".equals(workload.path("state").asText())
+                || "yes".equals(workload.path("transitioning").asText())) {
+            return false;
+        }
+        JsonNode status = status(workload);
+        if (status == null) {
+            // jobs and others, trust the state field
+            return true;
+        }
+        if (baselineGeneration >= 0 && status.has("observedGeneration")
+                && status.path("observedGeneration").asLong() <= baselineGeneration) {
+            // the controller has not seen the updated spec yet, counts are about the old pods
+            return false;
+        }
+        if (status.has("desiredNumberScheduled")) {
+            long desired = status.path("desiredNumberScheduled").asLong();
+            return status.path("updatedNumberScheduled").asLong(desired) >= desired
+                    && status.path("numberAvailable").asLong(desired) >= desired;
+        }
+        long replicas = status.path("replicas").asLong();
+        return status.path("updatedReplicas").asLong(replicas) >= replicas
+                && status.path("readyReplicas").asLong(replicas) >= replicas
+                && status.path("unavailableReplicas").asLong(0) == 0;
+    }
+
+    /**
+     * @param workload workload document
+     * @param baselineGeneration observedGeneration of the workload status read before the update, -1 if unknown
+     * @return true if the status is known to describe the updated spec, otherwise an active state may be a stale one
+     */
+    static boolean isObservedSince(JsonNode workload, long baselineGeneration) {
+        JsonNode status = status(workload);
+        return baselineGeneration >= 0 && status != null
+                && status.path("observedGeneration").asLong(-1) > baselineGeneration;
+    }
+
+    /**
+     * @return deployment, stateful set or daemon set status, null for other kinds
+     */
+    private static JsonNode status(JsonNode workload) {
+        for (String field : new String[]{"deploymentStatus", "statefulSetStatus", "daemonSetStatus"}) {
+            JsonNode status = workload.path(field);
+            if (status.isObject()) {
+                return status;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,415 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import hudson.AbortException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolve workloads addressed by names instead of API path, eg: <b>local/Default/default/nginx</b>
+ * or by label selector, eg: <b>local/Default/default?app=nginx,tier=web</b>,
+ * and find all workloads of a cluster, project or namespace using some images, eg: <b>local/Default/*</b>.
+ * clusters and projects of an endpoint are indexed once, workloads are indexed per project when first asked for,
+ * each part is reloaded on its own when it expires, or when a lookup misses and it was not reloaded just now.
+ * tokens scoped to a single cluster cannot list clusters, their cluster is addressed by id, eg: <b>c-h4hxd/Default/default/nginx</b>.
+ */
+final class WorkloadIndex {
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(WorkloadIndex.class.getName() + ".ttlSeconds", 300));
+    private static final long MIN_RELOAD_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(WorkloadIndex.class.getName() + ".minReloadSeconds", 10));
+    private static final ConcurrentMap<Key, WorkloadIndex> INDEXES = new ConcurrentHashMap<>();
+
+    // cluster name to cluster id, guarded by this
+    private Map<String, String> clusterIds = Collections.emptyMap();
+    // cluster id and project name to project id, guarded by this
+    private Map<String, String> projectIds = Collections.emptyMap();
+    private long loadedAt = Long.MIN_VALUE;
+    private final ConcurrentMap<String, ProjectWorkloads> projects = new ConcurrentHashMap<>();
+    private final String singleClusterId;
+    private volatile long usedAt = System.currentTimeMillis();
+
+    private WorkloadIndex(String singleClusterId) {
+        this.singleClusterId = singleClusterId;
+    }
+
+    /**
+     * @param endpoint rancher API url
+     * @param bearerToken token, what it can see decides the content of the index, only its digest is kept
+     * @param singleClusterId id of the cluster the token is scoped to, null if not scoped to a single cluster
+     * @return index shared by all builds using the same endpoint and token
+     */
+    static WorkloadIndex of(String endpoint, String bearerToken, String singleClusterId) {
+        String clusterId = singleClusterId == null || singleClusterId.isEmpty() ? null : singleClusterId;
+        long now = System.currentTimeMillis();
+        // an index unused for longer than the ttl would be reloaded anyway, drop it with the tokens it stood for
+        INDEXES.values().removeIf(index -> now - index.usedAt > TTL_MILLIS);
+        WorkloadIndex index = INDEXES.computeIfAbsent(new Key(endpoint, Rancher2Client.digest(bearerToken), clusterId),
+                key -> new WorkloadIndex(clusterId));
+        index.usedAt = now;
+        return index;
+    }
+
+    /**
+     * drop the indexes of a token, e.g. when its credential changed
+     *
+     * @param endpoint rancher API url
+     * @param bearerToken token
+     */
+    static void invalidate(String endpoint, String bearerToken) {
+        String tokenDigest = Rancher2Client.digest(bearerToken);
+        INDEXES.keySet().removeIf(key -> key.endpoint.equals(endpoint) && key.tokenDigest.equals(tokenDigest));
+    }
+
+    /**
+     * @param client client of the endpoint
+     * @param reference workload reference by names or label selector
+     * @return API paths of matching workloads, in id order
+     * @throws AbortException if nothing matches, or a name is ambiguous
+     */
+    List<String> resolve(Rancher2Client client, Reference reference) throws IOException, InterruptedException {
+        String projectId = projectIds(client, reference).get(0);
+        ProjectWorkloads workloads = projects.computeIfAbsent(projectId, ProjectWorkloads::new);
+        Set<String> ids = workloads.find(client, reference);
+        if (ids.isEmpty()) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_workloadNotFound(reference));
+        }
+        if (reference.name != null && ids.size() > 1) {
+            throw new AbortException(Messages.Rancher2RedeployBuilder_workloadAmbiguous(reference, ids));
+        }
+        List<String> paths = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            paths.add("/project/" + projectId + "/workloads/" + id);
+        }
+        return paths;
+    }
+
+    /**
+     * list workloads of the scope using any of the images, workload lists are always reloaded.
+     * @param client client of the endpoint
+     * @param scope cluster, project or namespace to scan
+     * @param imageNames image names without version
+     * @return API path of matching workload to names of the images it uses, in project and id order
+     */
+    Map<String, Set<String>> scan(Rancher2Client client, Reference scope, Set<String> imageNames)
+            throws IOException, InterruptedException {
+        Map<String, Set<String>> found = new LinkedHashMap<>();
+        for (String projectId : projectIds(client, scope)) {
+            ProjectWorkloads workloads = projects.computeIfAbsent(projectId, ProjectWorkloads::new);
+            for (Map.Entry<String, Set<String>> workload : workloads.scan(client, scope.namespace, imageNames).entrySet()) {
+                found.put("/project/" + projectId + "/workloads/" + workload.getKey(), workload.getValue());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return id of the project of reference, or ids of all projects of the cluster if reference has no project
+     */
+    private synchronized List<String> projectIds(Rancher2Client client, Reference reference)
+            throws IOException, InterruptedException {
+        List<String> ids = lookupProjects(reference);
+        if (isReloadDue(loadedAt, ids != null)) {
+            Map<String, String> clusters = new HashMap<>();
+            if (singleClusterId != null) {
+                clusters.put(singleClusterId, singleClusterId);
+            } else {
+                for (JsonNode cluster : client.list(client.url("/clusters"))) {
+                    clusters.put(cluster.path("name").asText(), cluster.path("id").asText());
+                }
+            }
+            Map<String, String> projects = new TreeMap<>();
+            String projectsPath = singleClusterId == null ? "/projects" : "/projects?clusterId=" + singleClusterId;
+            for (JsonNode project : client.list(client.url(projectsPath))) {
+                projects.put(project.path("clusterId").asText() + "/" + project.path("name").asText(),
+                        project.path("id").asText());
+            }
+            clusterIds = clusters;
+            projectIds = projects;
+            loadedAt = System.currentTimeMillis();
+            ids = lookupProjects(reference);
+        }
+        if (ids == null) {
+            if (!clusterIds.containsKey(reference.cluster)) {
+                throw new AbortException(Messages.Rancher2RedeployBuilder_clusterNotFound(reference.cluster));
+            }
+            throw new AbortException(Messages.Rancher2RedeployBuilder_projectNotFound(reference.cluster, reference.project));
+        }
+        return ids;
+    }
+
+    /**
+     * @return matching project ids, null if cluster or project is unknown
+     */
+    private List<String> lookupProjects(Reference reference) {
+        String clusterId = clusterIds.get(reference.cluster);
+        if (clusterId == null) {
+            return null;
+        }
+        if (reference.project != null) {
+            String projectId = projectIds.get(clusterId + "/" + reference.project);
+            return projectId == null ? null : Collections.singletonList(projectId);
+        }
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, String> project : projectIds.entrySet()) {
+            if (project.getKey().startsWith(clusterId + "/")) {
+                ids.add(project.getValue());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param loadedAt time of last load
+     * @param found whether the lookup hits without a reload
+     * @return true if index part has expired, or the lookup missed and the part was not loaded just now
+     */
+    private static boolean isReloadDue(long loadedAt, boolean found) {
+        long age = System.currentTimeMillis() - loadedAt;
+        return loadedAt == Long.MIN_VALUE || age > TTL_MILLIS || !found && age > MIN_RELOAD_MILLIS;
+    }
+
+    /**
+     * workloads of one project, indexed by namespace and name, and by namespace and label
+     */
+    private static final class ProjectWorkloads {
+        private final String projectId;
+        // guarded by this
+        private Map<String, Set<String>> byName = Collections.emptyMap();
+        private Map<String, Set<String>> byLabel = Collections.emptyMap();
+        // workload id to namespace and image names of its containers
+        private Map<String, String> namespaces = Collections.emptyMap();
+        private Map<String, Set<String>> images = Collections.emptyMap();
+        private long loadedAt = Long.MIN_VALUE;
+
+        private ProjectWorkloads(String projectId) {
+            this.projectId = projectId;
+        }
+
+        private synchronized Set<String> find(Rancher2Client client, Reference reference)
+                throws IOException, InterruptedException {
+            Set<String> ids = lookup(reference);
+            if (isReloadDue(loadedAt, !ids.isEmpty())) {
+                load(client);
+                ids = lookup(reference);
+            }
+            return ids;
+        }
+
+        private synchronized Map<String, Set<String>> scan(Rancher2Client client, String namespace, Set<String> imageNames)
+                throws IOException, InterruptedException {
+            load(client);
+            Map<String, Set<String>> found = new TreeMap<>();
+            for (Map.Entry<String, Set<String>> workload : images.entrySet()) {
+                if (namespace != null && !namespace.equals(namespaces.get(workload.getKey()))) {
+                    continue;
+                }
+                Set<String> used = new TreeSet<>(workload.getValue());
+                used.retainAll(imageNames);
+                if (!used.isEmpty()) {
+                    found.put(workload.getKey(), used);
+                }
+            }
+            return found;
+        }
+
+        private Set<String> lookup(Reference reference) {
+            if (reference.name != null) {
+                return get(byName, reference.namespace + "/" + reference.name);
+            }
+            Set<String> ids = null;
+            for (Map.Entry<String, String> label : reference.selector.entrySet()) {
+                Set<String> matches = get(byLabel, reference.namespace + "/" + label.getKey() + "=" + label.getValue());
+                if (ids == null) {
+                    ids = new TreeSet<>(matches);
+                } else {
+                    ids.retainAll(matches);
+                }
+            }
+            return ids == null ? Collections.<String>emptySet() : ids;
+        }
+
+        private void load(Rancher2Client client) throws IOException, InterruptedException {
+            Map<String, Set<String>> names = new HashMap<>();
+            Map<String, Set<String>> labels = new HashMap<>();
+            Map<String, String> workloadNamespaces = new HashMap<>();
+            Map<String, Set<String>> workloadImages = new HashMap<>();
+            for (JsonNode workload : client.list(client.url("/project/" + projectId + "/workloads"))) {
+                String id = workload.path("id").asText();
+                String namespace = workload.path("namespaceId").asText();
+                workloadNamespaces.put(id, namespace);
+                for (JsonNode container : workload.path("containers")) {
+                    String image = container.path("image").asText(null);
+                    if (image != null) {
+                        add(workloadImages, id, WorkloadRedeployer.parseImageName(image));
+                    }
+                }
+                add(names, namespace + "/" + workload.path("name").asText(), id);
+                // workload id is kind:namespace:name, kind:name tells workloads of same name apart
+                int index = id.indexOf(':');
+                if (index > 0) {
+                    add(names, namespace + "/" + id.substring(0, index) + ":" + workload.path("name").asText(), id);
+                }
+                Iterator<Map.Entry<String, JsonNode>> fields = workload.path("labels").fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> label = fields.next();
+                    add(labels, namespace + "/" + label.getKey() + "=" + label.getValue().asText(), id);
+                }
+            }
+            byName = names;
+            byLabel = labels;
+            namespaces = workloadNamespaces;
+            images = workloadImages;
+            loadedAt = System.currentTimeMillis();
+        }
+
+        private static void add(Map<String, Set<String>> index, String key, String id) {
+            index.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+        }
+
+        private static Set<String> get(Map<String, Set<String>> index, String key) {
+            Set<String> ids = index.get(key);
+            return ids == null ? Collections.<String>emptySet() : ids;
+        }
+    }
+
+    /**
+     * workload addressed by cluster, project and namespace names, and either a workload name or a label selector,
+     * or a cluster, project or namespace to scan for workloads using some images
+     */
+    static final class Reference {
+        private final String cluster;
+        private final String project;
+        private final String namespace;
+        private final String name;
+        private final Map<String, String> selector;
+
+        private Reference(String cluster, String project, String namespace, String name, Map<String, String> selector) {
+            this.cluster = cluster;
+            this.project = project;
+            this.namespace = namespace;
+            this.name = name;
+            this.selector = selector;
+        }
+
+        /**
+         * @param workload cluster/project/namespace/name or cluster/project/namespace?label=value,label=value,
+         *                 or cluster/*, cluster/project/* and cluster/project/namespace/* to scan
+         * @return parsed reference, null if workload is not in one of these forms
+         */
+        static Reference parse(String workload) {
+            if (workload == null || workload.startsWith("/")) {
+                return null;
+            }
+            int query = workload.indexOf('?');
+            String path = query < 0 ? workload : workload.substring(0, query);
+            String[] parts = path.split("/", -1);
+            for (String part : parts) {
+                if (part.trim().isEmpty()) {
+                    return null;
+                }
+            }
+            if (query < 0 && "*".equals(parts[parts.length - 1])) {
+                switch (parts.length) {
+                    case 2:
+                        return new Reference(parts[0], null, null, null, null);
+                    case 3:
+                        return new Reference(parts[0], parts[1], null, null, null);
+                    case 4:
+                        return new Reference(parts[0], parts[1], parts[2], null, null);
+                    default:
+                        return null;
+                }
+            }
+            if (query < 0) {
+                return parts.length == 4 ? new Reference(parts[0], parts[1], parts[2], parts[3], null) : null;
+            }
+            if (parts.length != 3) {
+                return null;
+            }
+            Map<String, String> selector = new LinkedHashMap<>();
+            for (String label : workload.substring(query + 1).split(",", -1)) {
+                int index = label.indexOf('=');
+                if (index <= 0) {
+                    return null;
+                }
+                selector.put(label.substring(0, index).trim(), label.substring(index + 1).trim());
+            }
+            return new Reference(parts[0], parts[1], parts[2], null, selector);
+        }
+
+        /**
+         * @return true if this is a cluster, project or namespace to scan, instead of a workload
+         */
+        boolean isScope() {
+            return name == null && selector == null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(cluster);
+            for (String part : new String[]{project, namespace, name}) {
+                if (part != null) {
+                    sb.append('/').append(part);
+                }
+            }
+            if (isScope()) {
+                return sb.append("/*").toString();
+            }
+            if (selector != null) {
+                sb.append('?');
+                for (Map.Entry<String, String> label : selector.entrySet()) {
+                    if (sb.charAt(sb.length() - 1) != '?') {
+                        sb.append(',');
+                    }
+                    sb.append(label.getKey()).append('=').append(label.getValue());
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Key {
+        private final String endpoint;
+        private final String tokenDigest;
+        private final String singleClusterId;
+
+        private Key(String endpoint, String tokenDigest, String singleClusterId) {
+            this.endpoint = endpoint;
+            this.tokenDigest = tokenDigest;
+            this.singleClusterId = singleClusterId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return endpoint.equals(key.endpoint) && tokenDigest.equals(key.tokenDigest)
+                    && Objects.equals(singleClusterId, key.singleClusterId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, tokenDigest, singleClusterId);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.AbortException;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET, modify and PUT back a single Rancher2.x workload.
+ * configure it before use, then one redeployer can serve all workloads of a build step concurrently.
+ */
+public class WorkloadRedeployer {
+    private final Rancher2Client client;
+    private final boolean alwaysPull;
+    private boolean partialUpdate;
+    private boolean onlyIfChanged;
+    private long rolloutTimeout;
+    private KubernetesPatcher kubernetes;
+    // workload url to observedGeneration of its status before our last update, the rollout must go beyond it
+    private final ConcurrentMap<String, Long> baselines = new ConcurrentHashMap<>();
+
+    public WorkloadRedeployer(Rancher2Client client, boolean alwaysPull) {
+        this.client = client;
+        this.alwaysPull = alwaysPull;
+    }
+
+    /**
+     * @param partialUpdate PUT only changed fields (annotations and containers), fall back to full document
+     *                      if Rancher2.x server rejects it
+     */
+    public void setPartialUpdate(boolean partialUpdate) {
+        this.partialUpdate = partialUpdate;
+    }
+
+    /**
+     * @param onlyIfChanged skip the PUT if every requested image tag equals the running one
+     */
+    public void setOnlyIfChanged(boolean onlyIfChanged) {
+        this.onlyIfChanged = onlyIfChanged;
+    }
+
+    /**
+     * @param rolloutTimeout seconds to wait for workload to become active after PUT, 0 to return immediately
+     */
+    public void setRolloutTimeout(long rolloutTimeout) {
+        this.rolloutTimeout = rolloutTimeout;
+    }
+
+    /**
+     * @param clusterId patch deployments, stateful sets and daemon sets through the Kubernetes API of their cluster,
+     *                  proxied by Rancher2.x, instead of PUT through /v3; if not empty, the token is scoped to
+     *                  this cluster and workloads of other clusters are refused
+     */
+    public void setKubernetesApi(String clusterId) {
+        this.kubernetes = new KubernetesPatcher(client, clusterId);
+    }
+
+    /**
+     * GET workload, set new image tags and PUT it back.
+     * if the workload was changed by someone else in the meantime, it is read again and the change is reapplied.
+     * @param workload workload API path, start with /project or /p/
+     * @param imageTags image name without version to new image tag
+     * @param logger build log
+     * @param prefix prepended to every log line, to tell workloads apart in batch mode
+     * @param previousTags filled with image name to tag running before the update, for rollback
+     * @return false if the update was skipped because no image tag changed
+     * @throws IOException if Rancher2.x server rejected the redeploy
+     */
+    public boolean update(String workload, Map<String, String> imageTags, Map<String, String> previousTags,
+                          PrintStream logger, String prefix) throws IOException, InterruptedException {
+        final String url = workloadUrl(workload);
+        RedeployCoordinator.Previous previous = new RedeployCoordinator.Previous();
+        // concurrent redeploys of the same workload from other builds are merged into one update
+        RedeployCoordinator.Key key = new RedeployCoordinator.Key(
+                url, client.getTokenDigest(), alwaysPull, partialUpdate, onlyIfChanged);
+        boolean updated = RedeployCoordinator.update(key, imageTags, previous, logger, prefix,
+                (mergedTags, mergedPrevious) -> updateWithRetry(url, mergedTags, mergedPrevious, logger, prefix));
+        previousTags.putAll(previous.imageTags);
+        baselines.put(url, previous.observedGeneration);
+        return updated;
+    }
+
+    private boolean updateWithRetry(String url, Map<String, String> imageTags, RedeployCoordinator.Previous previous,
+                                    PrintStream logger, String prefix) throws IOException, InterruptedException {
+        // whether the last attempt failed in a way the server may still have applied it
+        boolean uncertain = false;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return updateOnce(url, imageTags, previous, uncertain, logger, prefix);
+            } catch (RetryableUpdateException e) {
+                if (attempt >= Rancher2Client.MAX_ATTEMPTS) {
+                    throw e;
+                }
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_updateRetry(e.status, attempt));
+                uncertain = e.uncertain;
+                client.backoff(attempt, null);
+            }
+        }
+    }
+
+    /**
+     * @param uncertain the last attempt may have been applied, if the workload runs the new tags now it was,
+     *                  and the image tags read by that attempt are kept as previous ones
+     */
+    private boolean updateOnce(String url, Map<String, String> imageTags, RedeployCoordinator.Previous previous,
+                               boolean uncertain, PrintStream logger, String prefix) throws IOException, InterruptedException {
+        if (kubernetes != null) {
+            return kubernetes.update(url, imageTags, previous.imageTags, alwaysPull, onlyIfChanged, uncertain, logger, prefix);
+        }
+        // rewrite json body for PUT request while reading it
+        WorkloadRewriter rewriter = new WorkloadRewriter(imageTags, alwaysPull, partialUpdate);
+        try (CloseableHttpResponse response = client.execute(client.get(url).build(), true, Rancher2Metrics.Phase.GET)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200) {
+                throw new AbortException(
+                        Messages.Rancher2RedeployBuilder_badResponse(status, EntityUtils.toString(response.getEntity()))
+                );
+            }
+            long start = System.nanoTime();
+            rewriter.rewrite(response.getEntity().getContent(), response.getEntity().getContentLength());
+            // drain the rest of body, so the connection can go back to pool
+            EntityUtils.consume(response.getEntity());
+            client.getMetrics().record(Rancher2Metrics.Phase.JSON, System.nanoTime() - start);
+        }
+
+        if (uncertain && isApplied(previous.imageTags, imageTags, rewriter.isChanged())) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_updateApplied());
+            return true;
+        }
+        previous.imageTags.clear();
+        for (Map.Entry<String, String> change : rewriter.getImageChanges()) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_setImageTag(change.getKey(), change.getValue()));
+            previous.imageTags.put(parseImageName(change.getKey()), change.getKey());
+        }
+        previous.observedGeneration = rewriter.getObservedGeneration();
+        if (rewriter.getUpdatedImages().size() != imageTags.size()) {
+            throw new ImagesNotFoundException(rewriter.getWorkloadImages(), imageTags.keySet());
+        }
+        if (onlyIfChanged && !rewriter.isChanged()) {
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_unchanged());
+            return false;
+        }
+
+        if (partialUpdate) {
+            int status = put(url, rewriter.getChanges(), true);
+            if (status == 200) {
+                logger.println(prefix + Messages.Rancher2RedeployBuilder_partialUpdate());
+                return true;
+            }
+            logger.println(prefix + Messages.Rancher2RedeployBuilder_partialUpdateRejected(status));
+        }
+        put(url, rewriter.getDocument(), false);
+        logger.println(prefix + Messages.Rancher2RedeployBuilder_fullUpdate());
+        return true;
+    }
+
+    /**
+     * tell whether an update which failed with an unknown outcome was applied after all.
+     * an update which did not change any tag cannot be told from no update, it is not taken as applied.
+     * @param previousTags image name to tag read before the failed update
+     * @param imageTags image name without version to new image tag
+     * @param changed whether the workload read again still runs other tags than the requested ones
+     * @return true if the failed update changed a tag and the workload runs the requested tags now
+     */
+    static boolean isApplied(Map<String, String> previousTags, Map<String, String> imageTags, boolean changed) {
+        if (changed) {
+            return false;
+        }
+        for (Map.Entry<String, String> previousTag : previousTags.entrySet()) {
+            if (!previousTag.getValue().equals(imageTags.get(previousTag.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * wait for workload rollout, return immediately if rollout timeout is not set.
+     * the status must have observed a newer generation than the one read before our last update of the workload,
+     * so the state the workload had before the update is not taken for a finished rollout.
+     * @param workload workload API path, start with /project or /p/
+     * @param logger build log
+     * @param prefix prepended to every log line
+     * @throws IOException if rollout failed or timeout expired
+     */
+    public void awaitRollout(String workload, PrintStream logger, String prefix) throws IOException, InterruptedException {
+        if (rolloutTimeout > 0) {
+            long start = System.nanoTime();
+            try {
+                String url = workloadUrl(workload);
+                new RolloutWaiter(client).await(url, TimeUnit.SECONDS.toMillis(rolloutTimeout),
+                        baselines.getOrDefault(url, -1L), logger, prefix);
+            } finally {
+                client.getMetrics().record(Rancher2Metrics.Phase.ROLLOUT, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @return url of workload in Rancher2.x API, or in Kubernetes API of its cluster
+     */
+    private String workloadUrl(String workload) throws AbortException {
+        return kubernetes != null ? kubernetes.url(workload) : client.url(toApiPath(workload));
+    }
+
+    /**
+     * @param rejectable return status code instead of abort, if server rejects the body itself
+     * @return response status code
+     * @throws RetryableUpdateException on conflict, if server is overloaded, or on another server error,
+     * the workload should be read again
+     */
+    private int put(String url, HttpEntity body, boolean rejectable) throws IOException, InterruptedException {
+        return put(url, body, rejectable, true);
+    }
+
+    /**
+     * @param compress compress the body if the client is set to
+     */
+    private int put(String url, HttpEntity body, boolean rejectable, boolean compress)
+            throws IOException, InterruptedException {
+        HttpEntity entity = compress ? client.compress(body) : body;
+        HttpUriRequest putRequest = client.put(url)
+                .setEntity(entity)
+                .build();
+
+        int status;
+        try (CloseableHttpResponse putResponse = client.execute(putRequest, false, Rancher2Metrics.Phase.PUT)) {
+            status = putResponse.getStatusLine().getStatusCode();
+            if (!client.refusedCompression(entity, status)) {
+                if (status == 200 || rejectable && isRejected(status)) {
+                    EntityUtils.consume(putResponse.getEntity());
+                    return status;
+                }
+                String message = Messages.Rancher2RedeployBuilder_badResponse(
+                        status, EntityUtils.toString(putResponse.getEntity()));
+                throw RetryableUpdateException.of(status, message);
+            }
+            EntityUtils.consume(putResponse.getEntity());
+        }
+        // sent again once the response is closed, so the retry does not wait for the connection and throttle slot it holds
+        int plainStatus = put(url, body, rejectable, false);
+        if (plainStatus == 200) {
+            // only the encoding was refused, a body rejected either way says nothing about gzip
+            client.compressionRefused(status);
+        }
+        return plainStatus;
+    }
+
+    /**
+     * @return true if the status code means server does not accept the request body, rather than a server error
+     */
+    private static boolean isRejected(int status) {
+        return status == 400 || status == 405 || status == 415 || status == 422;
+    }
+
+    /**
+     * @param workload workload path copied from Rancher2.x API or web UI
+     * @return workload API path, the web UI form /p/.../workload/... is rewritten to /project/.../workloads/...
+     */
+    static String toApiPath(String workload) {
+        if (workload.startsWith("/p/")) {
+            return workload.replaceFirst("/p/", "/project/").replaceFirst("/workload/", "/workloads/");
+        }
+        return workload;
+    }
+
+    /**
+     * @param images semicolon separated image tags, eg: nginx:1.0;myteam/myproject:v2.0
+     * @return image name without version to image tag
+     */
+    static Map<String, String> parseImages(String images) {
+        Map<String, String> imageTags = new LinkedHashMap<>();
+        if (StringUtils.isNotBlank(images)) {
+            String[] imageArray = images.split(";");
+            for (String imageTag : imageArray) {
+                String name = parseImageName(imageTag);
+                imageTags.put(name, imageTag);
+            }
+        }
+        return imageTags;
+    }
+
+    /**
+     * @param imageTag image with optional tag or digest, eg: registry.example.com:5000/team/app:1.0 or nginx@sha256:...
+     * @return image name without version, a registry port is kept
+     */
+    static String parseImageName(String imageTag) {
+        int digest = imageTag.indexOf('@');
+        if (digest >= 0) {
+            return imageTag.substring(0, digest);
+        }
+        int index = imageTag.lastIndexOf(':');
+        if (index < 0 || imageTag.indexOf('/', index) >= 0) {
+            return imageTag;
+        }
+        return imageTag.substring(0, index);
+    }
+
+    /**
+     * some requested images are not used by the workload, nothing was updated
+     */
+    static final class ImagesNotFoundException extends AbortException {
+        private final Set<String> workloadImages;
+
+        /**
+         * @param workloadImages names of all images found in workload
+         * @param imageNames names of the requested images
+         */
+        ImagesNotFoundException(Set<String> workloadImages, Set<String> imageNames) {
+            super(Messages.Rancher2RedeployBuilder_notMatch(workloadImages, imageNames));
+            this.workloadImages = workloadImages;
+        }
+
+        Set<String> getWorkloadImages() {
+            return workloadImages;
+        }
+    }
+
+    static final class RetryableUpdateException extends AbortException {
+        private final int status;
+        // the server failed after it may have applied the update, so a retry could deploy twice
+        private final boolean uncertain;
+
+        RetryableUpdateException(int status, String message, boolean uncertain) {
+            super(message);
+            this.status = status;
+            this.uncertain = uncertain;
+        }
+
+        /**
+         * @param status response status of a failed PUT or PATCH
+         * @return exception to throw, retryable on conflict, throttling and unavailable server,
+         * retryable after a check on other server errors, an AbortException otherwise
+         */
+        static AbortException of(int status, String message) {
+            if (status == 409 || status == 429 || status == 503) {
+                return new RetryableUpdateException(status, message, false);
+            }
+            if (status >= 500) {
+                return new RetryableUpdateException(status, message, true);
+            }
+            return new AbortException(message);
+        }
+    }
+}
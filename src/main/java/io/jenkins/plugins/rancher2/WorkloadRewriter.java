@@ -0,0 +1,306 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * rewrite a workload document token by token, from GET response body to PUT request body.
+ * no tree of the document is built, only annotations and containers are buffered when a partial body is wanted too.
+ * one rewriter handles one document.
+ */
+final class WorkloadRewriter {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    static final String TIMESTAMP_ANNOTATION = "cattle.io/timestamp";
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Map<String, String> imageTags;
+    private final boolean alwaysPull;
+    private final boolean partial;
+    private final String timestamp = timestamp();
+
+    private final Set<String> workloadImages = new HashSet<>();
+    private final Set<String> updatedImages = new HashSet<>();
+    private final List<Map.Entry<String, String>> imageChanges = new ArrayList<>();
+    private boolean changed;
+    private long observedGeneration = -1;
+    private Buffer document;
+    private Buffer changes;
+
+    /**
+     * @param imageTags image name without version to new image tag
+     * @param alwaysPull set imagePullPolicy of updated containers to Always
+     * @param partial also write a body with changed fields only (annotations and containers)
+     */
+    WorkloadRewriter(Map<String, String> imageTags, boolean alwaysPull, boolean partial) {
+        this.imageTags = imageTags;
+        this.alwaysPull = alwaysPull;
+        this.partial = partial;
+    }
+
+    /**
+     * @return value of the timestamp annotation, a new value makes Kubernetes roll out pods again
+     */
+    static String timestamp() {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new Date());
+    }
+
+    /**
+     * @param in workload document
+     * @param length length of document if known, otherwise negative
+     */
+    void rewrite(InputStream in, long length) throws IOException {
+        int size = length > 0 && length < Integer.MAX_VALUE ? (int) length : DEFAULT_BUFFER_SIZE;
+        document = new Buffer(size);
+        changes = partial ? new Buffer(DEFAULT_BUFFER_SIZE) : null;
+        try (JsonParser parser = FACTORY.createParser(in);
+             JsonGenerator full = FACTORY.createGenerator(document);
+             JsonGenerator part = partial ? FACTORY.createGenerator(changes) : null) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("workload document is not a JSON object");
+            }
+            full.writeStartObject();
+            if (part != null) {
+                part.writeStartObject();
+            }
+            boolean hasAnnotations = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "actions":
+                    case "links":
+                        parser.skipChildren();
+                        break;
+                    case "annotations":
+                        hasAnnotations = true;
+                        writeSection(field, parser, full, part);
+                        break;
+                    case "containers":
+                        writeSection(field, parser, full, part);
+                        break;
+                    case "deploymentStatus":
+                    case "statefulSetStatus":
+                    case "daemonSetStatus":
+                        TokenBuffer status = new TokenBuffer(parser);
+                        status.copyCurrentStructure(parser);
+                        observedGeneration = readObservedGeneration(status.asParser());
+                        full.writeFieldName(field);
+                        status.serialize(full);
+                        break;
+                    default:
+                        full.writeFieldName(field);
+                        full.copyCurrentStructure(parser);
+                }
+            }
+            if (!hasAnnotations) {
+                writeSection("annotations", null, full, part);
+            }
+            full.writeEndObject();
+            if (part != null) {
+                part.writeEndObject();
+            }
+        }
+    }
+
+    /**
+     * @return full document to PUT back
+     */
+    HttpEntity getDocument() {
+        return document.toEntity();
+    }
+
+    /**
+     * @return document with changed fields only, null if the rewriter was not asked for it
+     */
+    HttpEntity getChanges() {
+        return changes == null ? null : changes.toEntity();
+    }
+
+    /**
+     * @return names of all images found in workload
+     */
+    Set<String> getWorkloadImages() {
+        return workloadImages;
+    }
+
+    /**
+     * @return names of images which got a new tag
+     */
+    Set<String> getUpdatedImages() {
+        return updatedImages;
+    }
+
+    /**
+     * @return old image tag to new image tag, one entry per updated container
+     */
+    List<Map.Entry<String, String>> getImageChanges() {
+        return imageChanges;
+    }
+
+    /**
+     * @return true if any container got an image tag different from its current one
+     */
+    boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return observedGeneration of the workload status before the update, -1 if the workload has none
+     */
+    long getObservedGeneration() {
+        return observedGeneration;
+    }
+
+    /**
+     * @param parser positioned before a status object
+     * @return its observedGeneration, -1 if missing
+     */
+    private static long readObservedGeneration(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return -1;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_NUMBER_INT && "observedGeneration".equals(name)) {
+                return parser.getLongValue();
+            }
+            parser.skipChildren();
+        }
+        return -1;
+    }
+
+    /**
+     * write a field to full document, and to partial document if wanted.
+     * @param parser positioned at field value, null if the field is missing in workload
+     */
+    private void writeSection(String field, JsonParser parser, JsonGenerator full, JsonGenerator part) throws IOException {
+        if (part == null) {
+            full.writeFieldName(field);
+            writeField(field, parser, full);
+            return;
+        }
+        TokenBuffer section = new TokenBuffer(null, false);
+        writeField(field, parser, section);
+        full.writeFieldName(field);
+        section.serialize(full);
+        part.writeFieldName(field);
+        section.serialize(part);
+    }
+
+    private void writeField(String field, JsonParser parser, JsonGenerator out) throws IOException {
+        if ("annotations".equals(field)) {
+            writeAnnotations(parser, out);
+        } else {
+            writeContainers(parser, out);
+        }
+    }
+
+    private void writeAnnotations(JsonParser parser, JsonGenerator out) throws IOException {
+        out.writeStartObject();
+        if (parser != null && parser.currentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (TIMESTAMP_ANNOTATION.equals(name)) {
+                    parser.skipChildren();
+                } else {
+                    out.writeFieldName(name);
+                    out.copyCurrentStructure(parser);
+                }
+            }
+        } else if (parser != null) {
+            parser.skipChildren();
+        }
+        out.writeStringField(TIMESTAMP_ANNOTATION, timestamp);
+        out.writeEndObject();
+    }
+
+    private void writeContainers(JsonParser parser, JsonGenerator out) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            out.copyCurrentStructure(parser);
+            return;
+        }
+        out.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                writeContainer(parser, out);
+            } else {
+                out.copyCurrentStructure(parser);
+            }
+        }
+        out.writeEndArray();
+    }
+
+    private void writeContainer(JsonParser parser, JsonGenerator out) throws IOException {
+        out.writeStartObject();
+        boolean updated = false;
+        boolean hasPullPolicy = false;
+        String pullPolicy = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("image".equals(name) && value == JsonToken.VALUE_STRING) {
+                String oldTag = parser.getText();
+                String image = WorkloadRedeployer.parseImageName(oldTag);
+                workloadImages.add(image);
+                String newTag = imageTags.get(image);
+                if (newTag != null) {
+                    updated = true;
+                    updatedImages.add(image);
+                    imageChanges.add(new AbstractMap.SimpleImmutableEntry<>(oldTag, newTag));
+                    changed |= !newTag.equals(oldTag);
+                }
+                out.writeStringField(name, newTag != null ? newTag : oldTag);
+            } else if (alwaysPull && "imagePullPolicy".equals(name)) {
+                // image may come later, decide at end of container
+                hasPullPolicy = true;
+                pullPolicy = parser.getValueAsString();
+                parser.skipChildren();
+            } else {
+                out.writeFieldName(name);
+                out.copyCurrentStructure(parser);
+            }
+        }
+        if (updated && alwaysPull) {
+            out.writeStringField("imagePullPolicy", "Always");
+        } else if (hasPullPolicy) {
+            if (pullPolicy == null) {
+                out.writeNullField("imagePullPolicy");
+            } else {
+                out.writeStringField("imagePullPolicy", pullPolicy);
+            }
+        }
+        out.writeEndObject();
+    }
+
+    /**
+     * output buffer handing its array to the request entity without a copy
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private HttpEntity toEntity() {
+            return new ByteArrayEntity(buf, 0, count, ContentType.APPLICATION_JSON);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.jenkins.plugins.rancher2;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ResultFormatType;
+
+/**
+ * run all JMH benchmarks of this plugin with allocation profiling, results are written to target/jmh-report.json.
+ * not picked up by a normal build, run it with: mvn test -Pbenchmark
+ */
+public class BenchmarkRunner {
+    @Test
+    public void runBenchmarks() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json")
+                .shouldFailOnError(true)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,76 @@
+package io.jenkins.plugins.rancher2;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+/**
+ * cost of http clients against a local {@link FakeRancherServer}.
+ * create builds a client for an https endpoint without connecting, trust-all adds a custom SSL context.
+ * createAndGet is a fresh client per request, sharedGet goes through the pooled client of {@link ClientRegistry}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClientBuilderBenchmark {
+    @Param({"false", "true"})
+    public boolean trustAll;
+
+    private FakeRancherServer server;
+    private String workloadUrl;
+    private String httpsEndpoint;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new FakeRancherServer(WorkloadDocuments.deployment(1));
+        workloadUrl = server.getEndpoint() + "/project/c-h4hxd:p-c9j8z/workloads/deployment:default:nginx";
+        httpsEndpoint = server.getEndpoint().replaceFirst("^http:", "https:");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ClientRegistry.invalidateAll();
+        server.close();
+    }
+
+    @Benchmark
+    public CloseableHttpClient create() throws IOException {
+        try (CloseableHttpClient client = ClientBuilder.create(httpsEndpoint, trustAll)) {
+            return client;
+        }
+    }
+
+    @Benchmark
+    public int createAndGet() throws IOException {
+        try (CloseableHttpClient client = ClientBuilder.create(server.getEndpoint(), trustAll)) {
+            return get(client);
+        }
+    }
+
+    @Benchmark
+    public int sharedGet() throws IOException {
+        try (ClientRegistry.Lease lease = ClientRegistry.acquire(server.getEndpoint(), trustAll)) {
+            return get(lease.getClient());
+        }
+    }
+
+    private int get(CloseableHttpClient client) throws IOException {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(workloadUrl))) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.jenkins.plugins.rancher2;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointThrottleTest {
+    private static final String TOKEN = "token-abcde:secret";
+
+    private FakeRancherServer server;
+    private CloseableHttpClient httpClient;
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        // a new server listens on a new port, so every test gets throttles of its own
+        server = new FakeRancherServer(WorkloadDocuments.deployment(1));
+        httpClient = ClientBuilder.create(server.getEndpoint(), false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        server.close();
+    }
+
+    private static void get(Rancher2Client client, String path) throws IOException, InterruptedException {
+        try (CloseableHttpResponse response = client.execute(
+                client.get(client.url(path)).build(), true, Rancher2Metrics.Phase.GET)) {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+
+    private Thread start(Rancher2Client client, String path) {
+        Thread thread = new Thread(() -> {
+            try {
+                get(client, path);
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(thread.getName() + " never waited for a slot", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        Rancher2Client client = new Rancher2Client(httpClient, server.getEndpoint(), TOKEN, 5, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            get(client, "/clusters");
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // a burst of 5, then one request every 200 ms
+        assertEquals(10, server.getGetCount());
+        assertTrue("10 requests at 5 per second took " + elapsed + " ms", elapsed >= 900);
+        assertTrue("waited " + client.getThrottleWait() + " ms", client.getThrottleWait() >= 800);
+    }
+
+    @Test
+    public void testConcurrencyCapInArrivalOrder() throws Exception {
+        server.setLatency(200);
+        Rancher2Client client = new Rancher2Client(httpClient, server.getEndpoint(), TOKEN, 0, 1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(start(client, "/clusters?n=0"));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getRequests().isEmpty()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        // the first request holds the only slot, the others queue up one after the other
+        for (int i = 1; i <= 4; i++) {
+            Thread thread = start(client, "/clusters?n=" + i);
+            awaitWaiting(thread);
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(Arrays.asList("/v3/clusters?n=0", "/v3/clusters?n=1", "/v3/clusters?n=2",
+                "/v3/clusters?n=3", "/v3/clusters?n=4"), server.getRequests());
+        assertEquals(1, server.getMaxInFlight());
+    }
+
+    @Test
+    public void testLimitsOfOtherCredentials() throws Exception {
+        server.setLatency(200);
+        // a credential with a low limit does not hold back one without limit on the same endpoint
+        Rancher2Client limited = new Rancher2Client(httpClient, server.getEndpoint(), TOKEN, 0, 1);
+        Rancher2Client unlimited = new Rancher2Client(httpClient, server.getEndpoint(), TOKEN, 0, 0);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            threads.add(start(limited, "/clusters"));
+            threads.add(start(unlimited, "/projects"));
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(4, server.getGetCount());
+        assertTrue(server.getMaxInFlight() >= 3);
+    }
+}
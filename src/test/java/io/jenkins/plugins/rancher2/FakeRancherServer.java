@@ -0,0 +1,397 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * in-process stand-in for a Rancher2.x API server, listening on a random local port.
+ * it knows one cluster with one project, every workload GET returns the same document unless another one was added,
+ * or 404 once the workload was removed, and every PUT is accepted and remembered,
+ * so is every PATCH of the Kubernetes API under /k8s/clusters.
+ * latency, server errors and throttling can be injected to see how the plugin copes.
+ * responses can be gzip encoded, gzip request bodies are read or refused with 415, or 422 like Rancher does.
+ */
+final class FakeRancherServer implements Closeable {
+    static final String CLUSTER_ID = "c-h4hxd";
+    static final String CLUSTER_NAME = "local";
+    static final String PROJECT_ID = CLUSTER_ID + ":p-c9j8z";
+    static final String PROJECT_NAME = "Default";
+    static final String WORKLOAD_PATH = "/project/" + PROJECT_ID + "/workloads/deployment:default:nginx";
+    static final String KUBERNETES_PATH = "/k8s/clusters/" + CLUSTER_ID + "/apis/apps/v1/namespaces/default/deployments/nginx";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final byte[] workload;
+    // API path without /v3 to workload document
+    private final Map<String, byte[]> workloads = new ConcurrentHashMap<>();
+    // API paths without /v3 answered with 404
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private final Map<String, byte[]> puts = new ConcurrentHashMap<>();
+    private final AtomicInteger getCount = new AtomicInteger();
+    private final AtomicInteger putCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    // path and query of every request, in arrival order
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long latency;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private final AtomicInteger pendingFailures = new AtomicInteger();
+    private volatile int pendingFailureStatus;
+    private final AtomicInteger pendingUpdateFailures = new AtomicInteger();
+    private volatile int pendingUpdateFailureStatus;
+    private volatile boolean gzipResponses;
+    private volatile int gzipRefusalStatus;
+    private final AtomicInteger gzipRequestCount = new AtomicInteger();
+    private final AtomicInteger gzipRefusalCount = new AtomicInteger();
+    private final AtomicInteger pendingRejections = new AtomicInteger();
+    private volatile int pendingRejectionStatus;
+    private volatile String failingImage;
+    private volatile String failingMessage;
+
+    /**
+     * @param workload document returned for every workload GET
+     */
+    FakeRancherServer(byte[] workload) throws IOException {
+        this.workload = workload;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return API endpoint, eg: http://127.0.0.1:12345/v3
+     */
+    String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/v3";
+    }
+
+    /**
+     * @param path API path without /v3, eg: /project/c-h4hxd:p-c9j8z/workloads/deployment:default:nginx,
+     *             or Kubernetes API path, eg: {@link #KUBERNETES_PATH}
+     * @param document returned for GET of the path instead of the default one
+     */
+    void addWorkload(String path, byte[] document) {
+        workloads.put(path, document);
+    }
+
+    /**
+     * @param path API path without /v3, answered with 404 from now on, like a workload deleted or never created
+     */
+    void removeWorkload(String path) {
+        missing.add(path);
+    }
+
+    /**
+     * @param millis delay before every response
+     */
+    void setLatency(long millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * @param rate share of requests answered with 503, 0 to 1
+     */
+    void setErrorRate(double rate) {
+        this.errorRate = rate;
+    }
+
+    /**
+     * @param rate share of requests answered with 429, 0 to 1
+     */
+    void setThrottleRate(double rate) {
+        this.throttleRate = rate;
+    }
+
+    /**
+     * @param gzip encode responses with gzip if the client accepts it
+     */
+    void setGzipResponses(boolean gzip) {
+        this.gzipResponses = gzip;
+    }
+
+    /**
+     * @param gzip read gzip request bodies, otherwise refuse them with 415
+     */
+    void setGzipRequests(boolean gzip) {
+        setGzipRefusalStatus(gzip ? 0 : 415);
+    }
+
+    /**
+     * @param status status refusing gzip request bodies with, 0 to read them
+     */
+    void setGzipRefusalStatus(int status) {
+        this.gzipRefusalStatus = status;
+    }
+
+    /**
+     * @param count number of next requests to fail, whatever the rates are
+     * @param status 429 or 503
+     */
+    void failNext(int count, int status) {
+        pendingFailureStatus = status;
+        pendingFailures.set(count);
+    }
+
+    /**
+     * @param count number of next PUT or PATCH requests to apply, but answer with the status anyway,
+     *              like a server failing after it stored the update; later GETs of the path return the body
+     * @param status server error status, eg: 500 or 502
+     */
+    void failNextAfterUpdate(int count, int status) {
+        pendingUpdateFailureStatus = status;
+        pendingUpdateFailures.set(count);
+    }
+
+    /**
+     * @param count number of next PUT or PATCH requests to reject without applying them, gzip bodies are refused before
+     * @param status client error status, eg: 400 or 422
+     */
+    void rejectNext(int count, int status) {
+        pendingRejectionStatus = status;
+        pendingRejections.set(count);
+    }
+
+    /**
+     * let rollouts of an image fail, workload GETs report a transitioning error while a container runs it.
+     * from now on the last accepted PUT of a path is served to its GETs, active unless it runs the image,
+     * with its status observing a new generation, so a rollback to another image can be seen to succeed.
+     * @param image full image, eg: nginx:1.16
+     * @param message transitioning message, eg: ImagePullBackOff
+     */
+    void failRollout(String image, String message) {
+        this.failingMessage = message;
+        this.failingImage = image;
+    }
+
+    /**
+     * @param path API path without /v3
+     * @return body of the last accepted PUT or PATCH to the path, null if none
+     */
+    String getLastPut(String path) {
+        byte[] body = puts.get(path);
+        return body == null ? null : new String(body, StandardCharsets.UTF_8);
+    }
+
+    int getGetCount() {
+        return getCount.get();
+    }
+
+    int getPutCount() {
+        return putCount.get();
+    }
+
+    /**
+     * @return PUT or PATCH requests with a gzip body, read or refused
+     */
+    int getGzipRequestCount() {
+        return gzipRequestCount.get();
+    }
+
+    /**
+     * @return PUT or PATCH requests whose gzip body was refused
+     */
+    int getGzipRefusalCount() {
+        return gzipRefusalCount.get();
+    }
+
+    /**
+     * @return requests answered with an injected 503 or 429
+     */
+    int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return path and query of every request so far, in arrival order, eg: /v3/clusters
+     */
+    List<String> getRequests() {
+        synchronized (requests) {
+            return new ArrayList<>(requests);
+        }
+    }
+
+    /**
+     * @return most requests handled at the same time so far
+     */
+    int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestURI().toString());
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            serve(exchange);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = readAll(in);
+        }
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+                return;
+            }
+        }
+        int forced = pendingFailures.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0 ? pendingFailureStatus : 0;
+        double dice = ThreadLocalRandom.current().nextDouble();
+        if (forced == 429 || forced == 0 && dice < throttleRate) {
+            failureCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            respond(exchange, 429, "{\"type\":\"error\",\"status\":429,\"code\":\"TooManyRequests\"}");
+            return;
+        }
+        if (forced != 0 || dice < throttleRate + errorRate) {
+            failureCount.incrementAndGet();
+            respond(exchange, 503, "{\"type\":\"error\",\"status\":503,\"code\":\"ServiceUnavailable\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith("/v3")) {
+            path = path.substring(3);
+        }
+        if (missing.contains(path)) {
+            respond(exchange, 404, "{\"type\":\"error\",\"status\":404,\"code\":\"NotFound\"}");
+            return;
+        }
+        if ("PUT".equals(exchange.getRequestMethod()) || "PATCH".equals(exchange.getRequestMethod())) {
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                gzipRequestCount.incrementAndGet();
+                int refusalStatus = gzipRefusalStatus;
+                if (refusalStatus != 0) {
+                    gzipRefusalCount.incrementAndGet();
+                    respond(exchange, refusalStatus, "{\"type\":\"error\",\"status\":" + refusalStatus + ",\"code\":\""
+                            + (refusalStatus == 422 ? "InvalidBodyContent" : "UnsupportedMediaType") + "\"}");
+                    return;
+                }
+                body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            if (pendingRejections.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                respond(exchange, pendingRejectionStatus, "{\"type\":\"error\",\"status\":"
+                        + pendingRejectionStatus + ",\"code\":\"InvalidBodyContent\"}");
+                return;
+            }
+            putCount.incrementAndGet();
+            puts.put(path, body);
+            if (pendingUpdateFailures.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                workloads.put(path, body);
+                failureCount.incrementAndGet();
+                respond(exchange, pendingUpdateFailureStatus, "{\"type\":\"error\",\"status\":"
+                        + pendingUpdateFailureStatus + ",\"code\":\"ServerError\"}");
+                return;
+            }
+            respond(exchange, 200, "{}");
+            return;
+        }
+        getCount.incrementAndGet();
+        if ("/clusters".equals(path)) {
+            respond(exchange, 200, "{\"data\":[{\"id\":\"" + CLUSTER_ID + "\",\"name\":\"" + CLUSTER_NAME + "\"}],"
+                    + "\"pagination\":{}}");
+        } else if ("/projects".equals(path)) {
+            respond(exchange, 200, "{\"data\":[{\"id\":\"" + PROJECT_ID + "\",\"clusterId\":\"" + CLUSTER_ID
+                    + "\",\"name\":\"" + PROJECT_NAME + "\"}],\"pagination\":{}}");
+        } else if (path.endsWith("/workloads")) {
+            respond(exchange, 200, "{\"data\":[" + new String(workload, StandardCharsets.UTF_8) + "],"
+                    + "\"pagination\":{}}");
+        } else if (failingImage != null) {
+            respond(exchange, 200, rollout(path));
+        } else {
+            respond(exchange, 200, workloads.getOrDefault(path, workload));
+        }
+    }
+
+    /**
+     * @return workload document as it looks after the last PUT rolled out, or failed to
+     */
+    private byte[] rollout(String path) throws IOException {
+        byte[] put = puts.get(path);
+        ObjectNode document = (ObjectNode) MAPPER.readTree(put != null ? put : workloads.getOrDefault(path, workload));
+        boolean failing = false;
+        for (JsonNode container : document.path("containers")) {
+            failing |= failingImage.equals(container.path("image").asText());
+        }
+        document.put("state", failing ? "updating" : "active");
+        document.put("transitioning", failing ? "error" : "no");
+        document.put("transitioningMessage", failing ? failingMessage : "");
+        JsonNode status = document.path("deploymentStatus");
+        if (put != null && status.isObject()) {
+            ((ObjectNode) status).put("observedGeneration", status.path("observedGeneration").asLong() + 1);
+        }
+        return MAPPER.writeValueAsBytes(document);
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (gzipResponses && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
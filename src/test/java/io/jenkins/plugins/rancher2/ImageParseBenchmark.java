@@ -0,0 +1,41 @@
+package io.jenkins.plugins.rancher2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+
+/**
+ * image tag parsing done for every build step and every container of a workload.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ImageParseBenchmark {
+    private final String[] imageTags = {
+            "nginx",
+            "nginx:1.15",
+            "myteam/myproject:v2.0",
+            "registry.example.com:5000/team/app:1.0.42",
+    };
+    private final String images = "nginx:1.15;myteam/myproject:v2.0;registry.example.com:5000/team/app:1.0.42;"
+            + "busybox:latest;redis:5.0-alpine";
+
+    @Benchmark
+    public void parseImageName(Blackhole blackhole) {
+        for (String imageTag : imageTags) {
+            blackhole.consume(WorkloadRedeployer.parseImageName(imageTag));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> parseImages() {
+        return WorkloadRedeployer.parseImages(images);
+    }
+}
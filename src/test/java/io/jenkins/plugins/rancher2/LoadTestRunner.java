@@ -0,0 +1,127 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.queue.QueueTaskFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * drive many concurrent redeploy builds against a local {@link FakeRancherServer} and report
+ * throughput, p50/p99 build duration and controller heap usage to stdout and target/load-test-report.txt.
+ * not picked up by a normal build, run it with: mvn test -Pload-test
+ * tune it with system properties rancher2.load.builds, rancher2.load.executors, rancher2.load.workloads,
+ * rancher2.load.containers, rancher2.load.latency (millis), rancher2.load.errorRate and rancher2.load.throttleRate.
+ * the run fails if any build failed, injected errors included, so a report is only green if every redeploy went through.
+ */
+public class LoadTestRunner {
+    private static final int BUILDS = Integer.getInteger("rancher2.load.builds", 200);
+    private static final int EXECUTORS = Integer.getInteger("rancher2.load.executors", 20);
+    // builds of the same workload are merged by the coordinator, fewer workloads than executors measure its batching
+    private static final int WORKLOADS = Integer.getInteger("rancher2.load.workloads", EXECUTORS);
+    private static final int CONTAINERS = Integer.getInteger("rancher2.load.containers", 4);
+    private static final long LATENCY = Long.getLong("rancher2.load.latency", 20);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("rancher2.load.errorRate", "0"));
+    private static final double THROTTLE_RATE = Double.parseDouble(System.getProperty("rancher2.load.throttleRate", "0"));
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void runLoadTest() throws Exception {
+        jenkins.jenkins.setNumExecutors(EXECUTORS);
+        try (FakeRancherServer server = new FakeRancherServer(WorkloadDocuments.deployment(CONTAINERS))) {
+            server.setLatency(LATENCY);
+            server.setErrorRate(ERROR_RATE);
+            server.setThrottleRate(THROTTLE_RATE);
+            Rancher2RedeployBuilderTest.addCredential(server.getEndpoint());
+
+            List<FreeStyleProject> projects = new ArrayList<>();
+            for (int i = 0; i < BUILDS; i++) {
+                FreeStyleProject project = jenkins.createFreeStyleProject("redeploy-" + i);
+                // builds of the same workload are coalesced, spread them over a few workloads
+                String workload = "/project/" + FakeRancherServer.PROJECT_ID
+                        + "/workloads/deployment:default:app-" + (i % WORKLOADS);
+                project.getBuildersList().add(new Rancher2RedeployBuilder(
+                        Rancher2RedeployBuilderTest.CREDENTIAL_ID, workload, "nginx:1.16-" + i, false));
+                projects.add(project);
+            }
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            AtomicLong peakHeap = new AtomicLong(heapBefore);
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+            sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(
+                    memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 50, TimeUnit.MILLISECONDS);
+
+            long start = System.nanoTime();
+            List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<>();
+            for (FreeStyleProject project : projects) {
+                futures.add(project.scheduleBuild2(0));
+            }
+            List<Long> durations = new ArrayList<>();
+            List<String> failedBuilds = new ArrayList<>();
+            for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+                FreeStyleBuild build = future.get();
+                durations.add(build.getDuration());
+                if (build.getResult() != Result.SUCCESS) {
+                    failedBuilds.add(build.getFullDisplayName());
+                }
+            }
+            int failed = failedBuilds.size();
+            long elapsed = System.nanoTime() - start;
+            sampler.shutdownNow();
+            System.gc();
+            long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+            Collections.sort(durations);
+            String text = String.format("builds=%d executors=%d workloads=%d containers=%d latency=%dms errorRate=%.2f throttleRate=%.2f%n"
+                            + "failed=%d throughput=%.1f builds/s p50=%dms p99=%dms max=%dms%n"
+                            + "requests: GET=%d PUT=%d injected failures=%d%n"
+                            + "heap: before=%dMiB peak=%dMiB after=%dMiB%n",
+                    BUILDS, EXECUTORS, WORKLOADS, CONTAINERS, LATENCY, ERROR_RATE, THROTTLE_RATE,
+                    failed, BUILDS / (elapsed / 1e9), percentile(durations, 50), percentile(durations, 99),
+                    durations.get(durations.size() - 1),
+                    server.getGetCount(), server.getPutCount(), server.getFailureCount(),
+                    heapBefore >> 20, peakHeap.get() >> 20, heapAfter >> 20);
+            if (failed > 0) {
+                text += String.format("%n*** FAILED: %d of %d builds: %s ***%n", failed, BUILDS, failedBuilds);
+            }
+            report(text);
+            assertEquals("failed builds: " + failedBuilds, 0, failed);
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static void report(String text) throws IOException {
+        System.out.print(text);
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream("target/load-test-report.txt"), StandardCharsets.UTF_8))) {
+            out.print(text);
+        }
+    }
+}
@@ -1,68 +1,444 @@
 package io.jenkins.plugins.rancher2;
 
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.util.Secret;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class Rancher2RedeployBuilderTest {
+    static final String CREDENTIAL_ID = "rancher";
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private FakeRancherServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        // endpoints which refused compressed bodies in earlier tests
+        Rancher2Client.resetRefusedCompression();
+        server = new FakeRancherServer(WorkloadDocuments.deployment(2));
+        addCredential(server.getEndpoint());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * save a credential pointing to the endpoint, saving also drops cached credentials of earlier tests
+     */
+    static void addCredential(String endpoint) throws Exception {
+        addCredential(new Rancher2CredentialsImpl(
+                CredentialsScope.GLOBAL, CREDENTIAL_ID, endpoint, false, Secret.fromString("token-abcde:secret"), ""));
+    }
+
+    static void addCredential(Rancher2CredentialsImpl credential) throws Exception {
+        SystemCredentialsProvider store = SystemCredentialsProvider.getInstance();
+        store.getCredentials().clear();
+        store.getCredentials().add(credential);
+        store.save();
+    }
+
+    @Test
+    public void testConfigRoundtrip() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", true);
+        builder.setParallelism(2);
+        builder.setOnlyIfChanged(true);
+        builder.setRolloutTimeout(60);
+        project.getBuildersList().add(builder);
+        project = jenkins.configRoundtrip(project);
+        jenkins.assertEqualDataBoundBeans(builder, project.getBuildersList().get(0));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", true));
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_setImageTag("nginx:1.15", "nginx:1.16"), build);
+        String put = server.getLastPut(FakeRancherServer.WORKLOAD_PATH);
+        assertNotNull(put);
+        assertTrue(put.contains("\"image\":\"nginx:1.16\""));
+        assertTrue(put.contains("\"imagePullPolicy\":\"Always\""));
+        assertTrue(!put.contains("\"actions\""));
+
+        Rancher2DeploymentAction action = build.getAction(Rancher2DeploymentAction.class);
+        assertNotNull(action);
+        assertEquals("nginx:1.15", action.getDeployments().get(0).getPreviousImages().get("nginx"));
+    }
+
+    @Test
+    public void testMissingCredential() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                "missing", FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false));
+
+        FreeStyleBuild build = jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_missCredential("missing"), build);
+        assertEquals(0, server.getPutCount());
+    }
+
+    @Test
+    public void testRetryWhenThrottled() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false));
+        server.failNext(2, 429);
+
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(2, server.getFailureCount());
+        assertEquals(1, server.getPutCount());
+    }
+
+    @Test
+    public void testThrottleWaitLogged() throws Exception {
+        Rancher2CredentialsImpl credential = new Rancher2CredentialsImpl(CredentialsScope.GLOBAL, CREDENTIAL_ID,
+                server.getEndpoint(), false, Secret.fromString("token-abcde:secret"), "");
+        credential.setRequestsPerSecond(1);
+        addCredential(credential);
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false));
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        // the PUT waits about a second behind the GET
+        String[] around = Messages.Rancher2RedeployBuilder_throttleWait("#").split("#");
+        assertTrue(Pattern.compile(Pattern.quote(around[0]) + "[\\d,]+" + Pattern.quote(around[1]))
+                .matcher(JenkinsRule.getLog(build)).find());
+        assertEquals(1, server.getPutCount());
+    }
+
+    @Test
+    public void testServerErrorAfterUpdate() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false));
+        server.failNextAfterUpdate(1, 500);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_updateApplied(), build);
+        // the workload was read again instead of updated twice
+        assertEquals(1, server.getPutCount());
+        Rancher2DeploymentAction action = build.getAction(Rancher2DeploymentAction.class);
+        assertEquals("nginx:1.15", action.getDeployments().get(0).getPreviousImages().get("nginx"));
+    }
+
+    @Test
+    public void testOnlyIfChanged() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.15", false);
+        builder.setOnlyIfChanged(true);
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_unchanged(), build);
+        assertNull(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        String api = "/project/" + FakeRancherServer.PROJECT_ID + "/workloads/deployment:default:api";
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false);
+        builder.setWorkloads(Collections.singletonList(new Rancher2Workload(api, "nginx:1.17")));
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        String succeed = Messages.Rancher2RedeployBuilder_workloadSucceed("#", "#").split("#")[0];
+        jenkins.assertLogContains(succeed + FakeRancherServer.WORKLOAD_PATH + " ", build);
+        jenkins.assertLogContains(succeed + api + " ", build);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_success(), build);
+        assertEquals(2, server.getPutCount());
+        assertTrue(server.getLastPut(FakeRancherServer.WORKLOAD_PATH).contains("\"image\":\"nginx:1.16\""));
+        assertTrue(server.getLastPut(api).contains("\"image\":\"nginx:1.17\""));
+    }
+
+    @Test
+    public void testBatchFailure() throws Exception {
+        String missing = "/project/" + FakeRancherServer.PROJECT_ID + "/workloads/deployment:default:missing";
+        server.removeWorkload(missing);
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false);
+        builder.setWorkloads(Collections.singletonList(new Rancher2Workload(missing, "nginx:1.16")));
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        // the failure of one workload does not keep the other from being updated
+        String succeed = Messages.Rancher2RedeployBuilder_workloadSucceed("#", "#").split("#")[0];
+        jenkins.assertLogContains(succeed + FakeRancherServer.WORKLOAD_PATH + " ", build);
+        String notFound = "{\"type\":\"error\",\"status\":404,\"code\":\"NotFound\"}";
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_workloadFailed(
+                missing, Messages.Rancher2RedeployBuilder_badResponse(404, notFound)), build);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_batchFailed(1, 2), build);
+        jenkins.assertLogNotContains(Messages.Rancher2RedeployBuilder_success(), build);
+        assertEquals(1, server.getPutCount());
+        assertTrue(server.getLastPut(FakeRancherServer.WORKLOAD_PATH).contains("\"image\":\"nginx:1.16\""));
+        assertNull(server.getLastPut(missing));
+    }
+
+    @Test
+    public void testPartialUpdate() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", true);
+        builder.setPartialUpdate(true);
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_partialUpdate(), build);
+        jenkins.assertLogNotContains(Messages.Rancher2RedeployBuilder_fullUpdate(), build);
+        assertEquals(1, server.getPutCount());
+        JsonNode put = new ObjectMapper().readTree(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+        List<String> fields = new ArrayList<>();
+        put.fieldNames().forEachRemaining(fields::add);
+        assertEquals(Arrays.asList("annotations", "containers"), fields);
+        assertEquals("nginx:1.16", put.path("containers").get(0).path("image").asText());
+        assertEquals("Always", put.path("containers").get(0).path("imagePullPolicy").asText());
+    }
+
+    @Test
+    public void testPartialUpdateRejected() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false);
+        builder.setPartialUpdate(true);
+        project.getBuildersList().add(builder);
+
+        int puts = 0;
+        for (int status : new int[]{400, 405, 415, 422}) {
+            server.rejectNext(1, status);
+            FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+            jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_partialUpdateRejected(status), build);
+            jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_fullUpdate(), build);
+            jenkins.assertLogNotContains(Messages.Rancher2RedeployBuilder_partialUpdate(), build);
+            // the rejected partial body is not applied, the full document is
+            assertEquals(++puts, server.getPutCount());
+            JsonNode put = new ObjectMapper().readTree(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+            assertEquals("deployment:default:nginx", put.path("id").asText());
+            assertEquals("nginx:1.16", put.path("containers").get(0).path("image").asText());
+        }
+    }
+
+    /**
+     * @return project redeploying nginx:1.16 with a credential compressing request bodies
+     */
+    private FreeStyleProject compressingProject() throws Exception {
+        Rancher2CredentialsImpl credential = new Rancher2CredentialsImpl(CredentialsScope.GLOBAL, CREDENTIAL_ID,
+                server.getEndpoint(), false, Secret.fromString("token-abcde:secret"), "");
+        credential.setCompressRequests(true);
+        addCredential(credential);
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false));
+        return project;
+    }
+
+    @Test
+    public void testCompressedRequest() throws Exception {
+        FreeStyleProject project = compressingProject();
+
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(1, server.getGzipRequestCount());
+        assertEquals(0, server.getGzipRefusalCount());
+        assertTrue(server.getLastPut(FakeRancherServer.WORKLOAD_PATH).contains("\"image\":\"nginx:1.16\""));
+    }
+
+    @Test
+    public void testCompressedRequestRefused() throws Exception {
+        FreeStyleProject project = compressingProject();
+        server.setGzipResponses(true);
+        server.setGzipRequests(false);
+
+        jenkins.buildAndAssertSuccess(project);
+        // refused with 415, then sent again uncompressed
+        assertEquals(1, server.getGzipRequestCount());
+        assertEquals(1, server.getGzipRefusalCount());
+        assertEquals(1, server.getPutCount());
+        String put = server.getLastPut(FakeRancherServer.WORKLOAD_PATH);
+        assertNotNull(put);
+        assertTrue(put.contains("\"image\":\"nginx:1.16\""));
+
+        // the endpoint gets plain bodies from now on
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(1, server.getGzipRequestCount());
+        assertEquals(2, server.getPutCount());
+    }
+
+    @Test
+    public void testCompressedRequestInvalidBody() throws Exception {
+        FreeStyleProject project = compressingProject();
+        // Rancher itself answers a body it cannot read with 422 InvalidBodyContent
+        server.setGzipRefusalStatus(422);
+
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(1, server.getGzipRequestCount());
+        assertEquals(1, server.getGzipRefusalCount());
+        assertEquals(1, server.getPutCount());
+        assertTrue(server.getLastPut(FakeRancherServer.WORKLOAD_PATH).contains("\"image\":\"nginx:1.16\""));
+
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(1, server.getGzipRequestCount());
+        assertEquals(2, server.getPutCount());
+    }
+
+    @Test
+    public void testCompressedRequestRejectedEitherWay() throws Exception {
+        FreeStyleProject project = compressingProject();
+        server.setGzipRefusalStatus(422);
+        // the uncompressed body is rejected too
+        server.rejectNext(1, 422);
+
+        jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        assertEquals(1, server.getGzipRefusalCount());
+        assertEquals(0, server.getPutCount());
+
+        // it was the body, not the encoding, so the endpoint still gets compressed bodies
+        server.setGzipRefusalStatus(0);
+        jenkins.buildAndAssertSuccess(project);
+        assertEquals(2, server.getGzipRequestCount());
+        assertEquals(1, server.getGzipRefusalCount());
+        assertEquals(1, server.getPutCount());
+    }
+
+    @Test
+    public void testKubernetesApi() throws Exception {
+        Rancher2CredentialsImpl credential = new Rancher2CredentialsImpl(CredentialsScope.GLOBAL, CREDENTIAL_ID,
+                server.getEndpoint(), false, Secret.fromString("token-abcde:secret"), "");
+        credential.setSingleClusterToken(true);
+        credential.setClusterId(FakeRancherServer.CLUSTER_ID);
+        credential.setKubernetesApi(true);
+        addCredential(credential);
+        server.addWorkload(FakeRancherServer.KUBERNETES_PATH, WorkloadDocuments.kubernetesDeployment(2));
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        // a token of a single cluster addresses the cluster by id
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(CREDENTIAL_ID,
+                FakeRancherServer.CLUSTER_ID + "/" + FakeRancherServer.PROJECT_NAME + "/default/nginx", "nginx:1.16", true);
+        builder.setRolloutTimeout(10);
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_kubernetesPatched(), build);
+        String patch = server.getLastPut(FakeRancherServer.KUBERNETES_PATH);
+        assertNotNull(patch);
+        assertTrue(patch.contains("\"resourceVersion\":\"123456\""));
+        assertTrue(patch.contains("{\"name\":\"nginx\",\"image\":\"nginx:1.16\",\"imagePullPolicy\":\"Always\"}"));
+        assertTrue(!patch.contains("app-1"));
+        assertNull(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+    }
+
+    @Test
+    public void testWorkloadByName() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(CREDENTIAL_ID,
+                FakeRancherServer.CLUSTER_NAME + "/" + FakeRancherServer.PROJECT_NAME + "/default/nginx",
+                "nginx:1.16", false));
+
+        jenkins.buildAndAssertSuccess(project);
+        assertNotNull(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+    }
+
+    @Test
+    public void testRollbackOnFailure() throws Exception {
+        server.failRollout("nginx:1.16", "ImagePullBackOff");
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false);
+        builder.setRolloutTimeout(10);
+        builder.setRollbackOnFailure(true);
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        jenkins.assertLogContains("ImagePullBackOff", build);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_rollbackStart("[nginx:1.15]"), build);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_rollbackSucceed(), build);
+        // the update, then the rollback to the recorded previous image
+        assertEquals(2, server.getPutCount());
+        String put = server.getLastPut(FakeRancherServer.WORKLOAD_PATH);
+        assertTrue(put.contains("\"image\":\"nginx:1.15\""));
+        assertTrue(put.contains("\"image\":\"registry.example.com/team/app-1:v1.0.1\""));
+        assertTrue(build.getAction(Rancher2DeploymentAction.class).getDeployments().get(0).isRolledBack());
+    }
+
+    @Test
+    public void testRollbackFailed() throws Exception {
+        // the workload reports the error whatever it runs, the rollback does not roll out either
+        ObjectNode workload = (ObjectNode) new ObjectMapper().readTree(WorkloadDocuments.deployment(2));
+        workload.put("state", "updating");
+        workload.put("transitioning", "error");
+        workload.put("transitioningMessage", "ImagePullBackOff");
+        server.addWorkload(FakeRancherServer.WORKLOAD_PATH, new ObjectMapper().writeValueAsBytes(workload));
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(
+                CREDENTIAL_ID, FakeRancherServer.WORKLOAD_PATH, "nginx:1.16", false);
+        builder.setRolloutTimeout(10);
+        builder.setRollbackOnFailure(true);
+        project.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_rollbackStart("[nginx:1.15]"), build);
+        jenkins.assertLogContains(Messages.Rancher2RedeployBuilder_rollbackFailed(
+                Messages.Rancher2RedeployBuilder_rolloutFailed("updating", "ImagePullBackOff")), build);
+        jenkins.assertLogNotContains(Messages.Rancher2RedeployBuilder_rollbackSucceed(), build);
+        assertEquals(2, server.getPutCount());
+        assertTrue(server.getLastPut(FakeRancherServer.WORKLOAD_PATH).contains("\"image\":\"nginx:1.15\""));
+        assertFalse(build.getAction(Rancher2DeploymentAction.class).getDeployments().get(0).isRolledBack());
+    }
+
+    @Test
+    public void testEmptyScope() throws Exception {
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        project.getBuildersList().add(new Rancher2RedeployBuilder(CREDENTIAL_ID,
+                FakeRancherServer.CLUSTER_NAME + "/" + FakeRancherServer.PROJECT_NAME + "/*", "redis:5.0", false));
+
+        FreeStyleBuild build = jenkins.assertBuildStatus(Result.FAILURE, project.scheduleBuild2(0));
+        jenkins.assertLogContains("nothing to redeploy", build);
+        assertEquals(0, server.getPutCount());
+    }
+
+    @Test
+    public void testPipelineStep() throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-async-step");
+        job.setDefinition(new CpsFlowDefinition(
+                "def skipped = rancherRedeployAsync credential: '" + CREDENTIAL_ID + "', "
+                        + "workload: '" + FakeRancherServer.WORKLOAD_PATH + "', images: 'nginx:1.16', alwaysPull: false\n"
+                        + "echo \"skipped: ${skipped}\"", true));
 
-//    @Rule
-//    public JenkinsRule jenkins = new JenkinsRule();
-//
-//    final String name = "Bobby";
-//
-//    @Test
-//    public void testConfigRoundtrip() throws Exception {
-//        FreeStyleProject project = jenkins.createFreeStyleProject();
-//        project.getBuildersList().add(new Rancher2RedeployBuilder(name));
-//        project = jenkins.configRoundtrip(project);
-//        jenkins.assertEqualDataBoundBeans(new Rancher2RedeployBuilder(name), project.getBuildersList().get(0));
-//    }
-//
-//    @Test
-//    public void testConfigRoundtripFrench() throws Exception {
-//        FreeStyleProject project = jenkins.createFreeStyleProject();
-//        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(name);
-//        builder.setUseFrench(true);
-//        project.getBuildersList().add(builder);
-//        project = jenkins.configRoundtrip(project);
-//
-//        Rancher2RedeployBuilder lhs = new Rancher2RedeployBuilder(name);
-//        lhs.setUseFrench(true);
-//        jenkins.assertEqualDataBoundBeans(lhs, project.getBuildersList().get(0));
-//    }
-//
-//    @Test
-//    public void testBuild() throws Exception {
-//        FreeStyleProject project = jenkins.createFreeStyleProject();
-//        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(name);
-//        project.getBuildersList().add(builder);
-//
-//        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
-//        jenkins.assertLogContains("Hello, " + name, build);
-//    }
-//
-//    @Test
-//    public void testBuildFrench() throws Exception {
-//
-//        FreeStyleProject project = jenkins.createFreeStyleProject();
-//        Rancher2RedeployBuilder builder = new Rancher2RedeployBuilder(name);
-//        builder.setUseFrench(true);
-//        project.getBuildersList().add(builder);
-//
-//        FreeStyleBuild build = jenkins.buildAndAssertSuccess(project);
-//        jenkins.assertLogContains("Bonjour, " + name, build);
-//    }
-//
-//    @Test
-//    public void testScriptedPipeline() throws Exception {
-//        String agentLabel = "my-agent";
-//        jenkins.createOnlineSlave(Label.get(agentLabel));
-//        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "test-scripted-pipeline");
-//        String pipelineScript
-//                = "node {\n"
-//                + "  greet '" + name + "'\n"
-//                + "}";
-//        job.setDefinition(new CpsFlowDefinition(pipelineScript, true));
-//        WorkflowRun completedBuild = jenkins.assertBuildStatusSuccess(job.scheduleBuild2(0));
-//        String expectedString = "Hello, " + name + "!";
-//        jenkins.assertLogContains(expectedString, completedBuild);
-//    }
-
-}
\ No newline at end of file
+        WorkflowRun run = jenkins.buildAndAssertSuccess(job);
+        jenkins.assertLogContains("skipped: []", run);
+        assertNotNull(server.getLastPut(FakeRancherServer.WORKLOAD_PATH));
+    }
+}
@@ -0,0 +1,81 @@
+package io.jenkins.plugins.rancher2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Rancher2RedeployTaskTest {
+    /**
+     * @return workloads w1 to wN in order, all asking for the same image
+     */
+    private static Map<String, Map<String, String>> targets(int count) {
+        Map<String, Map<String, String>> targets = new LinkedHashMap<>();
+        for (int i = 1; i <= count; i++) {
+            targets.put("w" + i, Collections.singletonMap("nginx", "nginx:1.16"));
+        }
+        return targets;
+    }
+
+    /**
+     * @return workload names of each wave
+     */
+    private static List<List<String>> plan(int count, boolean canary, int waveSize) {
+        List<List<String>> names = new ArrayList<>();
+        for (Map<String, Map<String, String>> wave : Rancher2RedeployTask.planWaves(targets(count), canary, waveSize)) {
+            names.add(new ArrayList<>(wave.keySet()));
+        }
+        return names;
+    }
+
+    @Test
+    public void testCanaryOnly() {
+        assertEquals(Arrays.asList(
+                Collections.singletonList("w1"),
+                Arrays.asList("w2", "w3", "w4", "w5")), plan(5, true, 0));
+    }
+
+    @Test
+    public void testWaves() {
+        assertEquals(Arrays.asList(
+                Arrays.asList("w1", "w2"),
+                Arrays.asList("w3", "w4"),
+                Collections.singletonList("w5")), plan(5, false, 2));
+    }
+
+    @Test
+    public void testCanaryAndWaves() {
+        // the canary does not count into the first wave
+        assertEquals(Arrays.asList(
+                Collections.singletonList("w1"),
+                Arrays.asList("w2", "w3"),
+                Arrays.asList("w4", "w5")), plan(5, true, 2));
+    }
+
+    @Test
+    public void testWaveLargerThanTargets() {
+        assertEquals(Collections.singletonList(Arrays.asList("w1", "w2", "w3")), plan(3, false, 10));
+    }
+
+    @Test
+    public void testSingleTarget() {
+        assertEquals(Collections.singletonList(Collections.singletonList("w1")), plan(1, true, 2));
+        assertTrue(plan(0, true, 2).isEmpty());
+    }
+
+    @Test
+    public void testImageTagsKept() {
+        Map<String, Map<String, String>> targets = targets(3);
+        targets.put("w2", Collections.singletonMap("app", "app:2.0"));
+        List<Map<String, Map<String, String>>> waves = Rancher2RedeployTask.planWaves(targets, false, 2);
+        assertEquals("app:2.0", waves.get(0).get("w2").get("app"));
+        assertEquals("nginx:1.16", waves.get(1).get("w3").get("nginx"));
+    }
+}
@@ -0,0 +1,125 @@
+package io.jenkins.plugins.rancher2;
+
+import hudson.AbortException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RedeployCoordinatorTest {
+    private static final String URL = "https://rancher.example.com/v3" + FakeRancherServer.WORKLOAD_PATH;
+    private static final Set<String> WORKLOAD_IMAGES = new HashSet<>(Arrays.asList("nginx", "app"));
+
+    private ExecutorService executor;
+    // image tags of every update the coordinator ran, in order
+    private final List<Map<String, String>> applied = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return update failing like the workload redeployer if an image is not used by the workload
+     */
+    private RedeployCoordinator.Update update(CountDownLatch started, CountDownLatch release) {
+        return (imageTags, previous) -> {
+            applied.add(new LinkedHashMap<>(imageTags));
+            started.countDown();
+            release.await();
+            if (!WORKLOAD_IMAGES.containsAll(imageTags.keySet())) {
+                throw new WorkloadRedeployer.ImagesNotFoundException(WORKLOAD_IMAGES, imageTags.keySet());
+            }
+            previous.imageTags.put("nginx", "nginx:1.15");
+            return true;
+        };
+    }
+
+    private Future<Boolean> submit(String token, String images, ByteArrayOutputStream log, RedeployCoordinator.Update update) {
+        RedeployCoordinator.Key key = new RedeployCoordinator.Key(URL, Rancher2Client.digest(token), false, false, false);
+        PrintStream logger = new PrintStream(log, true);
+        return executor.submit(() -> RedeployCoordinator.update(key, WorkloadRedeployer.parseImages(images),
+                new RedeployCoordinator.Previous(), logger, "", update));
+    }
+
+    private static boolean coalesced(ByteArrayOutputStream... logs) {
+        for (ByteArrayOutputStream log : logs) {
+            if (new String(log.toByteArray(), StandardCharsets.UTF_8).contains(Messages.Rancher2RedeployBuilder_coalesced())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCredentialsAndBadImage() throws Exception {
+        CountDownLatch open = new CountDownLatch(0);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch firstRelease = new CountDownLatch(1);
+        // first build of credential a holds the workload
+        Future<Boolean> first = submit("token-a:secret", "nginx:1.16",
+                new ByteArrayOutputStream(), update(firstStarted, firstRelease));
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+
+        // a build of credential b is not queued behind credential a, nor merged with it
+        Future<Boolean> other = submit("token-b:secret", "nginx:1.17", new ByteArrayOutputStream(),
+                update(new CountDownLatch(1), open));
+        assertTrue(other.get(10, TimeUnit.SECONDS));
+
+        // two more builds of credential a form the next batch, one asks for an image the workload does not use
+        ByteArrayOutputStream goodLog = new ByteArrayOutputStream();
+        ByteArrayOutputStream badLog = new ByteArrayOutputStream();
+        Future<Boolean> good = submit("token-a:secret", "nginx:1.18", goodLog, update(new CountDownLatch(1), open));
+        Future<Boolean> bad = submit("token-a:secret", "redis:5.0", badLog, update(new CountDownLatch(1), open));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!coalesced(goodLog, badLog)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        firstRelease.countDown();
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(good.get(10, TimeUnit.SECONDS));
+        try {
+            bad.get(10, TimeUnit.SECONDS);
+            fail("build asking for an unknown image must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AbortException);
+            assertTrue(e.getCause().getMessage().contains("redis"));
+            assertFalse(e.getCause().getMessage().contains("nginx:1.18"));
+        }
+
+        // first, other credential, merged batch, batch again without the bad build
+        assertEquals(4, applied.size());
+        assertEquals(Collections.singletonMap("nginx", "nginx:1.17"), applied.get(1));
+        assertEquals(2, applied.get(2).size());
+        assertEquals(Collections.singletonMap("nginx", "nginx:1.18"), applied.get(3));
+    }
+}
@@ -0,0 +1,63 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RolloutWaiterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @return active deployment whose status was observed at generation 5
+     */
+    private static ObjectNode deployment() throws Exception {
+        return (ObjectNode) MAPPER.readTree(WorkloadDocuments.deployment(1));
+    }
+
+    @Test
+    public void testStaleStatusIsNotAvailable() throws Exception {
+        ObjectNode workload = deployment();
+        // read right after the PUT, the controller has not looked at the new spec yet
+        assertFalse(RolloutWaiter.isAvailable(workload, 5));
+        assertFalse(RolloutWaiter.isObservedSince(workload, 5));
+    }
+
+    @Test
+    public void testObservedStatusIsAvailable() throws Exception {
+        ObjectNode workload = deployment();
+        ((ObjectNode) workload.path("deploymentStatus")).put("observedGeneration", 6);
+        assertTrue(RolloutWaiter.isAvailable(workload, 5));
+        assertTrue(RolloutWaiter.isObservedSince(workload, 5));
+    }
+
+    @Test
+    public void testObservedStatusNotYetUpdated() throws Exception {
+        ObjectNode workload = deployment();
+        ObjectNode status = (ObjectNode) workload.path("deploymentStatus");
+        status.put("observedGeneration", 6);
+        status.put("updatedReplicas", 1);
+        status.put("unavailableReplicas", 2);
+        assertFalse(RolloutWaiter.isAvailable(workload, 5));
+    }
+
+    @Test
+    public void testTransitioningIsNotAvailable() throws Exception {
+        ObjectNode workload = deployment();
+        ((ObjectNode) workload.path("deploymentStatus")).put("observedGeneration", 6);
+        workload.put("state", "updating");
+        workload.put("transitioning", "yes");
+        assertFalse(RolloutWaiter.isAvailable(workload, 5));
+    }
+
+    @Test
+    public void testWithoutStatus() throws Exception {
+        ObjectNode workload = deployment();
+        workload.remove("deploymentStatus");
+        // only the state tells, await needs the workload to be seen transitioning or a grace period
+        assertTrue(RolloutWaiter.isAvailable(workload, -1));
+        assertFalse(RolloutWaiter.isObservedSince(workload, -1));
+    }
+}
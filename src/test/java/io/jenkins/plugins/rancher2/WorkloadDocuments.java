@@ -0,0 +1,117 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+
+/**
+ * synthetic Rancher2.x workload documents, shaped like the response of GET /project/.../workloads/...,
+ * and Kubernetes objects, shaped like the response of GET /k8s/clusters/.../apis/apps/v1/...
+ */
+final class WorkloadDocuments {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private WorkloadDocuments() {
+    }
+
+    /**
+     * @param containers number of containers, the first one runs image nginx, the others image app-N
+     * @return workload document in utf-8
+     */
+    static byte[] deployment(int containers) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("id", "deployment:default:nginx");
+        root.put("type", "workload");
+        root.put("name", "nginx");
+        root.put("namespaceId", "default");
+        root.put("projectId", "c-h4hxd:p-c9j8z");
+        root.put("state", "active");
+        root.put("transitioning", "no");
+        ObjectNode actions = root.putObject("actions");
+        for (String action : new String[]{"pause", "resume", "rollback", "redeploy"}) {
+            actions.put(action, "https://rancher.example.com/v3/project/c-h4hxd:p-c9j8z/workloads/deployment:default:nginx?action=" + action);
+        }
+        ObjectNode links = root.putObject("links");
+        for (String link : new String[]{"self", "remove", "revisions", "update", "yaml", "pods"}) {
+            links.put(link, "https://rancher.example.com/v3/project/c-h4hxd:p-c9j8z/workloads/deployment:default:nginx/" + link);
+        }
+        ObjectNode annotations = root.putObject("annotations");
+        annotations.put("cattle.io/timestamp", "2019-01-01T00:00:00Z");
+        annotations.put("deployment.kubernetes.io/revision", "42");
+        annotations.put("field.cattle.io/creatorId", "user-abcde");
+        ObjectNode labels = root.putObject("labels");
+        labels.put("workload.user.cattle.io/workloadselector", "deployment-default-nginx");
+
+        ArrayNode containerArray = root.putArray("containers");
+        for (int i = 0; i < containers; i++) {
+            ObjectNode container = containerArray.addObject();
+            container.put("name", i == 0 ? "nginx" : "app-" + i);
+            container.put("image", i == 0 ? "nginx:1.15" : "registry.example.com/team/app-" + i + ":v1.0." + i);
+            container.put("imagePullPolicy", "IfNotPresent");
+            container.put("initContainer", false);
+            container.put("restartCount", 0);
+            ArrayNode env = container.putArray("env");
+            for (int e = 0; e < 20; e++) {
+                env.addObject().put("name", "ENV_" + e).put("value", "value-of-environment-variable-" + e);
+            }
+            ArrayNode ports = container.putArray("ports");
+            ports.addObject().put("containerPort", 8080 + i).put("protocol", "TCP").put("kind", "ClusterIP");
+            ObjectNode resources = container.putObject("resources");
+            resources.putObject("limits").put("cpu", "500m").put("memory", "512Mi");
+            resources.putObject("requests").put("cpu", "100m").put("memory", "128Mi");
+            ArrayNode mounts = container.putArray("volumeMounts");
+            mounts.addObject().put("name", "config").put("mountPath", "/etc/app").put("readOnly", true);
+        }
+
+        ObjectNode status = root.putObject("deploymentStatus");
+        status.put("observedGeneration", 5);
+        status.put("availableReplicas", 3);
+        status.put("readyReplicas", 3);
+        status.put("replicas", 3);
+        status.put("updatedReplicas", 3);
+        ArrayNode conditions = status.putArray("conditions");
+        for (String type : new String[]{"Available", "Progressing"}) {
+            conditions.addObject().put("type", type).put("status", "True")
+                    .put("lastUpdateTime", "2019-01-01T00:00:00Z").put("message", "condition " + type + " met");
+        }
+        return MAPPER.writeValueAsBytes(root);
+    }
+
+    /**
+     * @param containers number of containers, the first one runs image nginx, the others image app-N
+     * @return rolled out apps/v1 deployment in utf-8
+     */
+    static byte[] kubernetesDeployment(int containers) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("apiVersion", "apps/v1");
+        root.put("kind", "Deployment");
+        ObjectNode metadata = root.putObject("metadata");
+        metadata.put("name", "nginx");
+        metadata.put("namespace", "default");
+        metadata.put("resourceVersion", "123456");
+        metadata.put("generation", 7);
+        ObjectNode spec = root.putObject("spec");
+        spec.put("replicas", 3);
+        ObjectNode template = spec.putObject("template");
+        template.putObject("metadata").putObject("annotations").put("cattle.io/timestamp", "2019-01-01T00:00:00Z");
+        ArrayNode containerArray = template.putObject("spec").putArray("containers");
+        for (int i = 0; i < containers; i++) {
+            ObjectNode container = containerArray.addObject();
+            container.put("name", i == 0 ? "nginx" : "app-" + i);
+            container.put("image", i == 0 ? "nginx:1.15" : "registry.example.com/team/app-" + i + ":v1.0." + i);
+            container.put("imagePullPolicy", "IfNotPresent");
+        }
+
+        ObjectNode status = root.putObject("status");
+        status.put("observedGeneration", 7);
+        status.put("availableReplicas", 3);
+        status.put("readyReplicas", 3);
+        status.put("replicas", 3);
+        status.put("updatedReplicas", 3);
+        status.putArray("conditions").addObject().put("type", "Progressing").put("status", "True")
+                .put("reason", "NewReplicaSetAvailable");
+        return MAPPER.writeValueAsBytes(root);
+    }
+}
@@ -0,0 +1,72 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * streaming rewrite of a workload document against the JsonNode tree approach it replaced.
+ * compare gc.alloc.rate.norm of both to see transient heap per redeploy, for workloads of different sizes.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WorkloadRewriteBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"1", "4", "16", "64"})
+    public int containers;
+
+    private byte[] document;
+    private Map<String, String> imageTags;
+
+    @Setup
+    public void setup() throws IOException {
+        document = WorkloadDocuments.deployment(containers);
+        imageTags = WorkloadRedeployer.parseImages("nginx:1.16");
+    }
+
+    @Benchmark
+    public HttpEntity streaming() throws IOException {
+        WorkloadRewriter rewriter = new WorkloadRewriter(imageTags, true, false);
+        rewriter.rewrite(new ByteArrayInputStream(document), document.length);
+        return rewriter.getDocument();
+    }
+
+    @Benchmark
+    public HttpEntity tree() throws IOException {
+        JsonNode root = MAPPER.readTree(new ByteArrayInputStream(document));
+        ObjectNode objectNode = (ObjectNode) root;
+        objectNode.remove("actions");
+        objectNode.remove("links");
+        ObjectNode annotations = (ObjectNode) root.get("annotations");
+        annotations.put("cattle.io/timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(new Date()));
+        JsonNode containers = root.get("containers");
+        for (int i = 0; i < containers.size(); i++) {
+            ObjectNode container = (ObjectNode) containers.get(i);
+            String name = WorkloadRedeployer.parseImageName(container.get("image").asText());
+            if (imageTags.containsKey(name)) {
+                container.put("image", imageTags.get(name));
+                container.put("imagePullPolicy", "Always");
+            }
+        }
+        return new StringEntity(MAPPER.writeValueAsString(root), "utf-8");
+    }
+}
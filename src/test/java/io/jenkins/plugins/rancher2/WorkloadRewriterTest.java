@@ -0,0 +1,150 @@
+package io.jenkins.plugins.rancher2;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkloadRewriterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static WorkloadRewriter rewrite(byte[] document, String images, boolean alwaysPull, boolean partial)
+            throws IOException {
+        WorkloadRewriter rewriter = new WorkloadRewriter(WorkloadRedeployer.parseImages(images), alwaysPull, partial);
+        rewriter.rewrite(new ByteArrayInputStream(document), document.length);
+        return rewriter;
+    }
+
+    private static JsonNode read(WorkloadRewriter rewriter) throws IOException {
+        return MAPPER.readTree(EntityUtils.toByteArray(rewriter.getDocument()));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] document = WorkloadDocuments.deployment(3);
+        WorkloadRewriter rewriter = rewrite(document, "nginx:1.16", false, false);
+        ObjectNode expected = (ObjectNode) MAPPER.readTree(document);
+        expected.remove("actions");
+        expected.remove("links");
+        ((ObjectNode) expected.path("containers").get(0)).put("image", "nginx:1.16");
+        ObjectNode actual = (ObjectNode) read(rewriter);
+        String timestamp = actual.path("annotations").path(WorkloadRewriter.TIMESTAMP_ANNOTATION).asText();
+        assertFalse("2019-01-01T00:00:00Z".equals(timestamp));
+        ((ObjectNode) expected.path("annotations")).put(WorkloadRewriter.TIMESTAMP_ANNOTATION, timestamp);
+
+        // everything else is copied as it was, the status too
+        assertEquals(expected, actual);
+        assertTrue(rewriter.isChanged());
+        assertEquals(5, rewriter.getObservedGeneration());
+        assertEquals(1, rewriter.getImageChanges().size());
+        assertEquals("nginx:1.15", rewriter.getImageChanges().get(0).getKey());
+        assertEquals(3, rewriter.getWorkloadImages().size());
+    }
+
+    @Test
+    public void testPartialDocument() throws Exception {
+        WorkloadRewriter rewriter = rewrite(WorkloadDocuments.deployment(2), "nginx:1.16", true, true);
+        JsonNode changes = MAPPER.readTree(EntityUtils.toByteArray(rewriter.getChanges()));
+        assertEquals(2, changes.size());
+        assertEquals("nginx:1.16", changes.path("containers").get(0).path("image").asText());
+        assertEquals("Always", changes.path("containers").get(0).path("imagePullPolicy").asText());
+        // containers not asked for keep their pull policy
+        assertEquals("IfNotPresent", changes.path("containers").get(1).path("imagePullPolicy").asText());
+        assertEquals("42", changes.path("annotations").path("deployment.kubernetes.io/revision").asText());
+        assertEquals(read(rewriter).path("containers"), changes.path("containers"));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        WorkloadRewriter rewriter = rewrite(WorkloadDocuments.deployment(1), "nginx:1.15", false, false);
+        assertFalse(rewriter.isChanged());
+        assertTrue(rewriter.getUpdatedImages().contains("nginx"));
+    }
+
+    @Test
+    public void testInitContainers() throws Exception {
+        ObjectNode workload = (ObjectNode) MAPPER.readTree(WorkloadDocuments.deployment(1));
+        // Rancher2.x lists init containers along with the others, flagged by initContainer
+        ((ArrayNode) workload.path("containers")).insertObject(0)
+                .put("name", "migrate").put("image", "registry.example.com/team/migrate:1").put("initContainer", true);
+        WorkloadRewriter rewriter = rewrite(MAPPER.writeValueAsBytes(workload),
+                "registry.example.com/team/migrate:2;nginx:1.16", false, false);
+        JsonNode containers = read(rewriter).path("containers");
+        assertEquals("registry.example.com/team/migrate:2", containers.get(0).path("image").asText());
+        assertTrue(containers.get(0).path("initContainer").asBoolean());
+        assertEquals("nginx:1.16", containers.get(1).path("image").asText());
+        assertEquals(2, rewriter.getUpdatedImages().size());
+    }
+
+    @Test
+    public void testRegistryPort() throws Exception {
+        ObjectNode workload = (ObjectNode) MAPPER.readTree(WorkloadDocuments.deployment(1));
+        ArrayNode containers = (ArrayNode) workload.path("containers");
+        containers.addObject().put("name", "app").put("image", "registry.example.com:5000/team/app:1.0");
+        containers.addObject().put("name", "latest").put("image", "registry.example.com:5000/team/latest");
+        WorkloadRewriter rewriter = rewrite(MAPPER.writeValueAsBytes(workload),
+                "registry.example.com:5000/team/app:1.1;registry.example.com:5000/team/latest:2.0", false, false);
+        JsonNode rewritten = read(rewriter).path("containers");
+        assertEquals("registry.example.com:5000/team/app:1.1", rewritten.get(1).path("image").asText());
+        assertEquals("registry.example.com:5000/team/latest:2.0", rewritten.get(2).path("image").asText());
+        assertTrue(rewriter.getWorkloadImages().contains("registry.example.com:5000/team/latest"));
+    }
+
+    @Test
+    public void testParseImageName() {
+        assertEquals("nginx", WorkloadRedeployer.parseImageName("nginx"));
+        assertEquals("nginx", WorkloadRedeployer.parseImageName("nginx:1.15"));
+        assertEquals("registry.example.com:5000/team/app", WorkloadRedeployer.parseImageName("registry.example.com:5000/team/app"));
+        assertEquals("registry.example.com:5000/team/app", WorkloadRedeployer.parseImageName("registry.example.com:5000/team/app:1.0"));
+        assertEquals("nginx", WorkloadRedeployer.parseImageName("nginx@sha256:0123456789abcdef"));
+        Map<String, String> imageTags = WorkloadRedeployer.parseImages("nginx:1.16;registry.example.com:5000/team/app:1.1");
+        assertEquals("registry.example.com:5000/team/app:1.1", imageTags.get("registry.example.com:5000/team/app"));
+    }
+
+    @Test
+    public void testNullFields() throws Exception {
+        ObjectNode workload = (ObjectNode) MAPPER.readTree(WorkloadDocuments.deployment(1));
+        workload.putNull("annotations");
+        workload.putNull("deploymentStatus");
+        ObjectNode container = (ObjectNode) workload.path("containers").get(0);
+        container.putNull("imagePullPolicy");
+        container.putNull("env");
+        ((ArrayNode) workload.path("containers")).addObject().put("name", "empty").putNull("image");
+        WorkloadRewriter rewriter = rewrite(MAPPER.writeValueAsBytes(workload), "nginx:1.16", false, false);
+        JsonNode rewritten = read(rewriter);
+        // a null annotations object is replaced with one holding the timestamp
+        assertTrue(rewritten.path("annotations").has(WorkloadRewriter.TIMESTAMP_ANNOTATION));
+        assertTrue(rewritten.path("deploymentStatus").isNull());
+        assertEquals(-1, rewriter.getObservedGeneration());
+        JsonNode containers = rewritten.path("containers");
+        assertEquals("nginx:1.16", containers.get(0).path("image").asText());
+        assertTrue(containers.get(0).path("imagePullPolicy").isNull());
+        assertTrue(containers.get(0).path("env").isNull());
+        assertTrue(containers.get(1).path("image").isNull());
+    }
+
+    @Test
+    public void testMissingAnnotationsAndContainers() throws Exception {
+        ObjectNode workload = (ObjectNode) MAPPER.readTree(WorkloadDocuments.deployment(1));
+        workload.remove("annotations");
+        workload.putNull("containers");
+        WorkloadRewriter rewriter = rewrite(MAPPER.writeValueAsBytes(workload), "nginx:1.16", true, true);
+        JsonNode rewritten = read(rewriter);
+        assertTrue(rewritten.path("annotations").has(WorkloadRewriter.TIMESTAMP_ANNOTATION));
+        assertTrue(rewritten.path("containers").isNull());
+        assertTrue(rewriter.getUpdatedImages().isEmpty());
+        assertFalse(rewriter.isChanged());
+        JsonNode changes = MAPPER.readTree(EntityUtils.toByteArray(rewriter.getChanges()));
+        assertTrue(changes.path("containers").isNull());
+    }
+}